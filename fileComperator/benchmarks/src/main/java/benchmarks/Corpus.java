@@ -0,0 +1,110 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generated XML configuration files used as benchmark input. The content only depends on the
+ * number of lines and on the seed, so every engine is measured on the same text.
+ *
+ * @author tstoyanov
+ */
+public final class Corpus {
+
+  /**
+   * How the new version of a file differs from the old one
+   */
+  public enum ChangeDensity {
+    IDENTICAL, FEW_EDITS, HEAVY_REWRITE, REORDERED_BLOCKS
+  }
+
+  private static final long SEED = 20190417L;
+
+  private static final int BLOCK_SIZE = 40;
+
+  private Corpus() {
+  }
+
+  /**
+   * @param lines - approximate number of lines
+   * @return old version of a generated file
+   */
+  public static String oldVersion(int lines) {
+    return String.join("\n", generateLines(lines, new Random(SEED)));
+  }
+
+  /**
+   * @param lines - approximate number of lines
+   * @param density
+   * @return new version of the file returned by {@link #oldVersion(int)}
+   */
+  public static String newVersion(int lines, ChangeDensity density) {
+    Random random = new Random(SEED);
+    List<String> result = generateLines(lines, random);
+    Random changes = new Random(SEED + density.ordinal());
+
+    switch (density) {
+      case FEW_EDITS:
+        for (int i = 0; i < result.size(); i += 200) {
+          int line = i + changes.nextInt(200);
+          if (line < result.size()) {
+            result.set(line, result.get(line).replace("value=\"", "value=\"edited-"));
+          }
+        }
+        break;
+      case HEAVY_REWRITE:
+        for (int i = 0; i < result.size(); i++) {
+          int operation = changes.nextInt(4);
+          if (operation == 0) {
+            result.set(i, propertyLine(changes));
+          }
+          else if (operation == 1) {
+            result.add(i++, propertyLine(changes));
+          }
+        }
+        break;
+      case REORDERED_BLOCKS:
+        List<List<String>> blocks = new ArrayList<>();
+        for (int i = 0; i < result.size(); i += BLOCK_SIZE) {
+          blocks.add(new ArrayList<>(result.subList(i, Math.min(i + BLOCK_SIZE, result.size()))));
+        }
+        for (int i = 0; i + 1 < blocks.size(); i += 10) {
+          Collections.swap(blocks, i, i + 1 + changes.nextInt(Math.min(9, blocks.size() - i - 1)));
+        }
+        result.clear();
+        for (List<String> block : blocks) {
+          result.addAll(block);
+        }
+        break;
+      default:
+        break;
+    }
+    return String.join("\n", result);
+  }
+
+  private static List<String> generateLines(int lines, Random random) {
+    List<String> result = new ArrayList<>(lines + 2);
+    result.add("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+    result.add("<beans>");
+    int bean = 0;
+    while (result.size() < lines - 1) {
+      result.add("  <bean id=\"bean" + bean + "\" class=\"com.example.Service" + (bean % 50)
+          + "\">");
+      int properties = 1 + random.nextInt(8);
+      for (int p = 0; p < properties; p++) {
+        result.add(propertyLine(random));
+      }
+      result.add("  </bean>");
+      bean++;
+    }
+    result.add("</beans>");
+    return result;
+  }
+
+  private static String propertyLine(Random random) {
+    return "    <property name=\"property" + random.nextInt(30) + "\" value=\"" + random.nextInt(1000)
+        + "\" />";
+  }
+}
@@ -0,0 +1,66 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Diff of two already tokenized versions of a file, {@code FileComparator.createSequencesList},
+ * with every diff algorithm, on words only and with the line level first engine.
+ *
+ * @author tstoyanov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DiffBenchmark {
+
+  @Param({ "1000", "10000" })
+  public int lines;
+
+  @Param({ "IDENTICAL", "FEW_EDITS", "HEAVY_REWRITE", "REORDERED_BLOCKS" })
+  public Corpus.ChangeDensity density;
+
+  @Param({ "MYERS", "HISTOGRAM" })
+  public String algorithm;
+
+  @Param({ "false", "true" })
+  public boolean lineLevelFirst;
+
+  private Subjects subjects;
+
+  private Object dictionary;
+
+  private int[] text1Words;
+
+  private int[] text2Words;
+
+  @Setup
+  public void setUp() throws Throwable {
+    this.subjects = new Subjects(this.algorithm, this.lineLevelFirst);
+    this.dictionary = this.subjects.newDictionary();
+    this.text1Words = this.subjects.tokenize(Corpus.oldVersion(this.lines), this.dictionary,
+        true);
+    this.text2Words = this.subjects.tokenize(Corpus.newVersion(this.lines, this.density),
+        this.dictionary, true);
+  }
+
+  @Benchmark
+  public Object diff() throws Throwable {
+    return this.subjects.createSequencesList(this.text1Words, this.text2Words,
+        this.dictionary);
+  }
+}
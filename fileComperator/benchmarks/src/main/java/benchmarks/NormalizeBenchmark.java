@@ -0,0 +1,51 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Normalization and tokenization of one file, for the text report (tag lines joined) and for the
+ * HTML view.
+ *
+ * @author tstoyanov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NormalizeBenchmark {
+
+  @Param({ "1000", "50000" })
+  public int lines;
+
+  @Param({ "true", "false" })
+  public boolean joinTagLines;
+
+  private Subjects subjects;
+
+  private String text;
+
+  @Setup
+  public void setUp() {
+    this.subjects = new Subjects();
+    this.text = Corpus.oldVersion(this.lines);
+  }
+
+  @Benchmark
+  public int[] normalize() throws Throwable {
+    return this.subjects.tokenize(this.text, this.subjects.newDictionary(), this.joinTagLines);
+  }
+}
@@ -0,0 +1,69 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Side by side rendering of an already computed edit script,
+ * {@code FileComparator.putColorMarksSideBySide}.
+ *
+ * @author tstoyanov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RenderBenchmark {
+
+  @Param({ "1000", "10000" })
+  public int lines;
+
+  @Param({ "IDENTICAL", "FEW_EDITS", "HEAVY_REWRITE", "REORDERED_BLOCKS" })
+  public Corpus.ChangeDensity density;
+
+  private Subjects subjects;
+
+  private Object dictionary;
+
+  private int[] text1Words;
+
+  private int[] text2Words;
+
+  private Object editScript;
+
+  @Setup
+  public void setUp() throws Throwable {
+    this.subjects = new Subjects();
+    this.dictionary = this.subjects.newDictionary();
+    this.text1Words = this.subjects.tokenize(Corpus.oldVersion(this.lines), this.dictionary,
+        true);
+    this.text2Words = this.subjects.tokenize(Corpus.newVersion(this.lines, this.density),
+        this.dictionary, true);
+    this.editScript = this.subjects.createSequencesList(this.text1Words, this.text2Words,
+        this.dictionary);
+  }
+
+  @Benchmark
+  public void render(Blackhole blackhole) throws Throwable {
+    StringBuilder left = new StringBuilder();
+    StringBuilder right = new StringBuilder();
+    this.subjects.putColorMarksSideBySide(this.text1Words, this.text2Words, this.editScript,
+        this.dictionary, left, right);
+    blackhole.consume(left);
+    blackhole.consume(right);
+  }
+}
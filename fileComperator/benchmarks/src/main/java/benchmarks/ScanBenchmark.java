@@ -0,0 +1,81 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Directory scan of a generated tree, {@code FileUtils.getAllFilePathsFrom}.
+ *
+ * @author tstoyanov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScanBenchmark {
+
+  private static final int FILES_PER_FOLDER = 50;
+
+  @Param({ "1000", "20000" })
+  public int fileCount;
+
+  private Subjects subjects;
+
+  private Path root;
+
+  @Setup
+  public void setUp() throws IOException {
+    this.subjects = new Subjects();
+    this.root = Files.createTempDirectory("scan-benchmark");
+    for (int i = 0; i < this.fileCount; i++) {
+      int folder = i / FILES_PER_FOLDER;
+      Path dir = this.root.resolve("module" + (folder % 10)).resolve("package" + folder);
+      Files.createDirectories(dir);
+      Files.write(dir.resolve("file" + i + ".xml"), new byte[] { '<', 'a', '/', '>' });
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.walkFileTree(this.root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  @Benchmark
+  public Map<?, ?> scan() throws Throwable {
+    return this.subjects.getAllFilePathsFrom(new File(this.root.toString()));
+  }
+}
@@ -0,0 +1,110 @@
+package benchmarks;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * Access to the measured code. The comparator classes live in the unnamed package, which JMH
+ * benchmarks cannot import, so they are resolved once by name and called through method handles.
+ *
+ * @author tstoyanov
+ */
+public final class Subjects {
+
+  private static final String EDITED_COLOR = "#CB6D6D";
+
+  private static final String DELETED_COLOR = "#CB6D6D";
+
+  private static final String INSERTED_COLOR = "#99FFCC";
+
+  private final MethodHandle newDictionary;
+
+  private final MethodHandle tokenize;
+
+  private final MethodHandle createSequencesList;
+
+  private final MethodHandle putColorMarksSideBySide;
+
+  private final MethodHandle getAllFilePathsFrom;
+
+  private final Object comparator;
+
+  public Subjects() {
+    this("MYERS", false);
+  }
+
+  /**
+   * @param algorithm - name of a {@code DiffAlgorithm}
+   * @param lineLevelFirst - see {@code FileComparator(DiffAlgorithm, boolean)}
+   */
+  public Subjects(String algorithm, boolean lineLevelFirst) {
+    try {
+      Class<?> dictionaryClass = Class.forName("TokenDictionary");
+      Class<?> lexerClass = Class.forName("NormalizingLexer");
+      Class<?> comparatorClass = Class.forName("FileComparator");
+      Class<?> editScriptClass = Class.forName("EditScript");
+      Class<?> fileUtilsClass = Class.forName("FileUtils");
+      Class<?> algorithmClass = Class.forName("DiffAlgorithm");
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+      this.newDictionary = lookup.unreflectConstructor(dictionaryClass.getConstructor());
+      this.tokenize = lookup.unreflect(lexerClass.getMethod("tokenize", CharSequence.class,
+          dictionaryClass, boolean.class));
+      this.createSequencesList = lookup.unreflect(accessible(comparatorClass
+          .getDeclaredMethod("createSequencesList", int[].class, int[].class, dictionaryClass,
+              boolean.class)));
+      this.putColorMarksSideBySide = lookup.unreflect(accessible(comparatorClass
+          .getDeclaredMethod("putColorMarksSideBySide", int[].class, int[].class,
+              editScriptClass, dictionaryClass, String.class, String.class, String.class,
+              Appendable.class, Appendable.class)));
+      this.getAllFilePathsFrom = lookup.findStatic(fileUtilsClass, "getAllFilePathsFrom",
+          MethodType.methodType(Map.class, File.class));
+
+      Object diffAlgorithm =
+          algorithmClass.getMethod("fromName", String.class).invoke(null, algorithm);
+      Constructor<?> comparatorConstructor =
+          comparatorClass.getConstructor(algorithmClass, boolean.class);
+      this.comparator = comparatorConstructor.newInstance(diffAlgorithm, lineLevelFirst);
+    }
+    catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Comparator classes are not on the class path", e);
+    }
+  }
+
+  private static Method accessible(Method method) {
+    method.setAccessible(true);
+    return method;
+  }
+
+  public Object newDictionary() throws Throwable {
+    return this.newDictionary.invoke();
+  }
+
+  public int[] tokenize(String text, Object dictionary, boolean joinTagLines) throws Throwable {
+    return (int[]) this.tokenize.invoke(text, dictionary, joinTagLines);
+  }
+
+  /**
+   * @return the edit script of the two word sequences
+   */
+  public Object createSequencesList(int[] text1Words, int[] text2Words, Object dictionary)
+      throws Throwable {
+    return this.createSequencesList.invoke(this.comparator, text1Words, text2Words, dictionary,
+        false);
+  }
+
+  public void putColorMarksSideBySide(int[] text1Words, int[] text2Words, Object editScript,
+      Object dictionary, Appendable left, Appendable right) throws Throwable {
+    this.putColorMarksSideBySide.invoke(this.comparator, text1Words, text2Words, editScript,
+        dictionary, EDITED_COLOR, INSERTED_COLOR, DELETED_COLOR, left, right);
+  }
+
+  public Map<?, ?> getAllFilePathsFrom(File rootFolder) throws Throwable {
+    return (Map<?, ?>) this.getAllFilePathsFrom.invoke(rootFolder);
+  }
+}
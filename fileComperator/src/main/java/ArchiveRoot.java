@@ -0,0 +1,69 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Root of a compared tree. A zip, jar, war or ear file is opened as a zip file system, so its
+ * entries are scanned and read in place without being extracted; any other path is used as it
+ * is. Entries of an archive carry the CRC of the central directory, so unchanged entries can be
+ * recognized without being inflated, see {@link ScannedFile#getCrc()}.
+ *
+ * @author tstoyanov
+ */
+public class ArchiveRoot implements Closeable {
+
+  private static final String[] ARCHIVE_EXTENSIONS = { ".zip", ".jar", ".war", ".ear" };
+
+  private final Path root;
+
+  private final FileSystem archive;
+
+  private ArchiveRoot(Path root, FileSystem archive) {
+    this.root = root;
+    this.archive = archive;
+  }
+
+  /**
+   * @param path - folder, file or archive to compare
+   * @return the opened root
+   * @throws IOException
+   */
+  public static ArchiveRoot open(Path path) throws IOException {
+    if (isArchive(path)) {
+      FileSystem archive = FileSystems.newFileSystem(path, (ClassLoader) null);
+      return new ArchiveRoot(archive.getPath("/"), archive);
+    }
+    return new ArchiveRoot(path, null);
+  }
+
+  private static boolean isArchive(Path path) {
+    if (!Files.isRegularFile(path)) {
+      return false;
+    }
+    String name = String.valueOf(path.getFileName()).toLowerCase(Locale.ROOT);
+    for (String extension : ARCHIVE_EXTENSIONS) {
+      if (name.endsWith(extension)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the folder to scan, the root folder of the archive for an archive
+   */
+  public Path getPath() {
+    return this.root;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.archive != null) {
+      this.archive.close();
+    }
+  }
+}
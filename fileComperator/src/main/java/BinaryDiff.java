@@ -0,0 +1,336 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Block comparison of binary files in the style of rsync. The old file is cut into blocks and
+ * every block gets a weak rolling checksum and a strong hash. A window of one block is then rolled
+ * over the new file byte by byte; where its checksum and hash match a block of the old file the
+ * block is taken as unchanged and the window jumps over it. The bytes of the new file not covered
+ * by a block are reported as added, the blocks of the old file never found as missing. Both files
+ * are streamed once and the number of blocks is capped, so time is linear and memory stays
+ * constant for files of any size.
+ *
+ * @author tstoyanov
+ */
+public class BinaryDiff {
+
+  /**
+   * Number of leading bytes looked at to tell binary from text files
+   */
+  private static final int SNIFF_LENGTH = 8000;
+
+  private static final int MIN_BLOCK_SIZE = 512;
+
+  private static final int MAX_BLOCKS = 1 << 16;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Number of changed ranges listed in a report, the rest are only counted
+   */
+  private static final int MAX_REPORTED_RANGES = 100;
+
+  private final int blockSize;
+
+  private final int blockCount;
+
+  /**
+   * Length of the last block of the old file, shorter than the block size or 0
+   */
+  private final int tailLength;
+
+  private final int[] weakHashes;
+
+  private final long[] strongHashes;
+
+  private final boolean[] matched;
+
+  /**
+   * Open addressing table of the first block index + 1 with a given weak checksum
+   */
+  private final int[] table;
+
+  /**
+   * Next block with the same weak checksum, -1 at the end of the chain
+   */
+  private final int[] sameWeakHash;
+
+  private final List<String> ranges = new ArrayList<>();
+
+  private int reportedRanges;
+
+  private int omittedRanges;
+
+  private long matchedBytes;
+
+  private BinaryDiff(long oldSize) {
+    int size = (int) Math.max(MIN_BLOCK_SIZE, Math.sqrt(oldSize));
+    this.blockSize = (int) Math.max(size, (oldSize + MAX_BLOCKS - 1) / MAX_BLOCKS);
+    this.blockCount = (int) (oldSize / this.blockSize);
+    this.tailLength = (int) (oldSize % this.blockSize);
+    this.weakHashes = new int[this.blockCount];
+    this.strongHashes = new long[this.blockCount];
+    this.matched = new boolean[this.blockCount + 1];
+    this.table = new int[Integer.highestOneBit(Math.max(1, this.blockCount)) * 4];
+    this.sameWeakHash = new int[this.blockCount];
+  }
+
+  /**
+   * @param file
+   * @return true when the start of the file contains a zero byte, which text files do not
+   * @throws IOException
+   */
+  public static boolean isBinary(Path file) throws IOException {
+    byte[] start = new byte[SNIFF_LENGTH];
+    int length = 0;
+    try (InputStream in = Files.newInputStream(file)) {
+      int read;
+      while (length < start.length && (read = in.read(start, length, start.length - length)) > 0) {
+        length += read;
+      }
+    }
+    for (int i = 0; i < length; i++) {
+      if (start[i] == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Compares two binary files.
+   *
+   * @param file1 - old version
+   * @param file2 - new version
+   * @return report lines with the similarity and the changed byte ranges of the two files
+   * @throws IOException
+   */
+  public static List<String> compare(Path file1, Path file2) throws IOException {
+    long oldSize = Files.size(file1);
+    long newSize = Files.size(file2);
+    BinaryDiff diff = new BinaryDiff(oldSize);
+    byte[] tail = diff.readSignature(file1);
+    diff.scan(file2, newSize, tail);
+
+    List<String> report = new ArrayList<>();
+    long largest = Math.max(oldSize, newSize);
+    double similarity = largest == 0 ? 100 : 100.0 * diff.matchedBytes / largest;
+    report.add(String.format("Binary file, %.1f%% similar", similarity));
+    diff.addMissingRanges(oldSize);
+    report.addAll(diff.ranges);
+    if (diff.omittedRanges > 0) {
+      report.add(String.format("%d more changed ranges", diff.omittedRanges));
+    }
+    return report;
+  }
+
+  /**
+   * Hashes the full blocks of the old file.
+   *
+   * @return the last, partial block
+   */
+  private byte[] readSignature(Path file) throws IOException {
+    byte[] block = new byte[this.blockSize];
+    try (InputStream in = Files.newInputStream(file)) {
+      for (int i = 0; i < this.blockCount; i++) {
+        readFully(in, block, this.blockSize);
+        this.weakHashes[i] = weakHash(block, 0, this.blockSize);
+        this.strongHashes[i] = strongHash(block, 0, this.blockSize);
+        this.sameWeakHash[i] = -1;
+        int slot = this.slot(this.weakHashes[i]);
+        if (this.table[slot] == 0) {
+          this.table[slot] = i + 1;
+        }
+        else {
+          int last = this.table[slot] - 1;
+          while (this.sameWeakHash[last] >= 0) {
+            last = this.sameWeakHash[last];
+          }
+          this.sameWeakHash[last] = i;
+        }
+      }
+      readFully(in, block, this.tailLength);
+    }
+    return Arrays.copyOf(block, this.tailLength);
+  }
+
+  /**
+   * Rolls the block window over the new file.
+   */
+  private void scan(Path file, long size, byte[] tail) throws IOException {
+    int b = this.blockSize;
+    byte[] buffer = new byte[b + BUFFER_SIZE];
+    int start = 0;
+    int end = 0;
+    long position = 0;
+    long unmatchedStart = 0;
+
+    try (InputStream in = Files.newInputStream(file)) {
+      int a = 0, s = 0;
+      boolean fresh = true;
+      while (true) {
+        if (end - start < b + 1 && position + (end - start) < size) {
+          System.arraycopy(buffer, start, buffer, 0, end - start);
+          end -= start;
+          start = 0;
+          int read;
+          while (end < buffer.length && (read = in.read(buffer, end, buffer.length - end)) > 0) {
+            end += read;
+          }
+        }
+        if (end - start < b) {
+          break;
+        }
+        if (fresh) {
+          int weak = weakHash(buffer, start, b);
+          a = weak & 0xFFFF;
+          s = weak >>> 16;
+          fresh = false;
+        }
+
+        int block = this.findBlock(a | (s << 16), buffer, start);
+        if (block >= 0) {
+          this.addAddedRange(unmatchedStart, position);
+          this.matched[block] = true;
+          this.matchedBytes += b;
+          start += b;
+          position += b;
+          unmatchedStart = position;
+          fresh = true;
+          continue;
+        }
+        if (end - start == b) {
+          break;
+        }
+        int outgoing = buffer[start] & 0xFF;
+        int incoming = buffer[start + b] & 0xFF;
+        a = (a - outgoing + incoming) & 0xFFFF;
+        s = (s - b * outgoing + a) & 0xFFFF;
+        start++;
+        position++;
+      }
+    }
+
+    // the short last block of the old file can only match the end of the new file
+    long length = position + end - start;
+    if (this.tailLength > 0 && end - start >= this.tailLength
+        && unmatchedStart <= length - this.tailLength
+        && Arrays.equals(Arrays.copyOfRange(buffer, end - this.tailLength, end), tail)) {
+      this.addAddedRange(unmatchedStart, length - this.tailLength);
+      this.matched[this.blockCount] = true;
+      this.matchedBytes += this.tailLength;
+      unmatchedStart = length;
+    }
+    this.addAddedRange(unmatchedStart, length);
+  }
+
+  /**
+   * @return index of an old block with the given weak checksum and the same content as the
+   *         window, an unmatched one if possible, -1 if there is none
+   */
+  private int findBlock(int weak, byte[] buffer, int start) {
+    int head = this.table[this.slot(weak)] - 1;
+    if (head < 0 || this.weakHashes[head] != weak) {
+      return -1;
+    }
+    long strong = strongHash(buffer, start, this.blockSize);
+    int found = -1;
+    for (int i = head; i >= 0; i = this.sameWeakHash[i]) {
+      if (this.strongHashes[i] == strong) {
+        if (!this.matched[i]) {
+          return i;
+        }
+        if (found < 0) {
+          found = i;
+        }
+      }
+    }
+    return found;
+  }
+
+  /**
+   * @return slot of the weak checksum, or of the chain holding it
+   */
+  private int slot(int weak) {
+    int mask = this.table.length - 1;
+    int slot = (weak * 0x9E3779B9 >>> 8) & mask;
+    while (this.table[slot] != 0 && this.weakHashes[this.table[slot] - 1] != weak) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void addAddedRange(long from, long to) {
+    if (from < to) {
+      this.addRange(this.ranges, "Bytes %d-%d is add in new version", from, to);
+    }
+  }
+
+  private void addMissingRanges(long oldSize) {
+    List<String> missing = new ArrayList<>();
+    int blocks = this.blockCount + (this.tailLength > 0 ? 1 : 0);
+    int i = 0;
+    while (i < blocks) {
+      if (this.matched[i]) {
+        i++;
+        continue;
+      }
+      int first = i;
+      while (i < blocks && !this.matched[i]) {
+        i++;
+      }
+      this.addRange(missing, "Bytes %d-%d is missing in new version",
+          (long) first * this.blockSize, Math.min((long) i * this.blockSize, oldSize));
+    }
+    this.ranges.addAll(0, missing);
+  }
+
+  private void addRange(List<String> ranges, String format, long from, long to) {
+    if (this.reportedRanges < MAX_REPORTED_RANGES) {
+      ranges.add(String.format(format, from, to - 1));
+      this.reportedRanges++;
+    }
+    else {
+      this.omittedRanges++;
+    }
+  }
+
+  /**
+   * Adler style checksum as used by rsync, the low and the high 16 bits can be rolled
+   */
+  private static int weakHash(byte[] bytes, int offset, int length) {
+    int a = 0, s = 0;
+    for (int i = 0; i < length; i++) {
+      a += bytes[offset + i] & 0xFF;
+      s += (length - i) * (bytes[offset + i] & 0xFF);
+    }
+    return (a & 0xFFFF) | ((s & 0xFFFF) << 16);
+  }
+
+  /**
+   * 64 bit FNV-1a hash
+   */
+  private static long strongHash(byte[] bytes, int offset, int length) {
+    long hash = 0xCBF29CE484222325L;
+    for (int i = offset; i < offset + length; i++) {
+      hash = (hash ^ (bytes[i] & 0xFF)) * 0x100000001B3L;
+    }
+    return hash;
+  }
+
+  private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+    int done = 0;
+    while (done < length) {
+      int read = in.read(buffer, done, length - done);
+      if (read < 0) {
+        throw new IOException("File changed while it was compared");
+      }
+      done += read;
+    }
+  }
+}
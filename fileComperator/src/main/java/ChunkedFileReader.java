@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * Reads a UTF-8 file into a {@link NormalizingLexer} without holding the file in memory. Small
+ * files are read through a fixed size buffer, large ones are memory-mapped window by window. The
+ * bytes are decoded incrementally, so the heap only holds one chunk of bytes and chars at a time.
+ * The same bytes can be fed to a {@link MessageDigest}, so a file is digested and normalized in one
+ * read.
+ *
+ * @author tstoyanov
+ */
+public class ChunkedFileReader {
+
+  private static final int CHUNK_SIZE = 64 * 1024;
+
+  /**
+   * Files of at least this size are memory-mapped
+   */
+  private static final long MAP_THRESHOLD = 16L * 1024 * 1024;
+
+  private static final long MAP_WINDOW = 64L * 1024 * 1024;
+
+  /**
+   * @param file
+   * @param dictionary
+   * @param joinTagLines - see {@link NormalizingLexer#NormalizingLexer(TokenDictionary, boolean)}
+   * @return word ids of the normalized file content
+   * @throws IOException
+   */
+  public static int[] tokenize(Path file, TokenDictionary dictionary, boolean joinTagLines)
+      throws IOException {
+    NormalizingLexer lexer = new NormalizingLexer(dictionary, joinTagLines);
+    read(file, lexer);
+    return lexer.finish();
+  }
+
+  /**
+   * Feeds the decoded content of the file to the lexer.
+   *
+   * @param file
+   * @param lexer
+   * @throws IOException
+   */
+  public static void read(Path file, NormalizingLexer lexer) throws IOException {
+    read(file, lexer, null);
+  }
+
+  /**
+   * Feeds the decoded content of the file to the lexer and the raw content to the digest.
+   *
+   * @param file
+   * @param lexer
+   * @param digest - digest updated with every byte of the file, null for none
+   * @throws IOException
+   */
+  public static void read(Path file, NormalizingLexer lexer, MessageDigest digest)
+      throws IOException {
+    CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+
+    if (file.getFileSystem() == FileSystems.getDefault() && Files.size(file) >= MAP_THRESHOLD) {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        long size = channel.size();
+        long position = 0;
+        boolean endOfInput = false;
+        while (!endOfInput) {
+          long length = Math.min(MAP_WINDOW, size - position);
+          endOfInput = position + length == size;
+          MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+          decode(decoder, window, chars, lexer, endOfInput);
+          if (digest != null) {
+            ByteBuffer decoded = window.duplicate();
+            decoded.flip();
+            digest.update(decoded);
+          }
+          // a character split by the window end is decoded again with the next window
+          position += window.position();
+        }
+      }
+    }
+    else {
+      try (ReadableByteChannel channel = Files.newByteChannel(file)) {
+        ByteBuffer bytes = ByteBuffer.allocate(CHUNK_SIZE);
+        boolean endOfInput = false;
+        while (!endOfInput) {
+          int start = bytes.position();
+          endOfInput = channel.read(bytes) < 0;
+          if (digest != null) {
+            ByteBuffer read = bytes.duplicate();
+            read.flip();
+            read.position(start);
+            digest.update(read);
+          }
+          bytes.flip();
+          decode(decoder, bytes, chars, lexer, endOfInput);
+          bytes.compact();
+        }
+      }
+    }
+
+    while (decoder.flush(chars).isOverflow()) {
+      drain(chars, lexer);
+    }
+    drain(chars, lexer);
+  }
+
+  private static void decode(CharsetDecoder decoder, ByteBuffer bytes, CharBuffer chars,
+      NormalizingLexer lexer, boolean endOfInput) {
+    CoderResult result;
+    do {
+      result = decoder.decode(bytes, chars, endOfInput);
+      drain(chars, lexer);
+    }
+    while (result.isOverflow());
+  }
+
+  private static void drain(CharBuffer chars, NormalizingLexer lexer) {
+    chars.flip();
+    lexer.feed(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+    chars.clear();
+  }
+}
@@ -0,0 +1,95 @@
+/**
+ * Algorithms the word sequences can be diffed with. Whatever the algorithm, the common prefix and
+ * suffix of both sequences are stripped first, so long identical headers and footers never reach
+ * it.
+ *
+ * @author tstoyanov
+ */
+public enum DiffAlgorithm {
+
+  /**
+   * Shortest edit script, see {@link MyersDiff}
+   */
+  MYERS {
+    @Override
+    void diffStripped(int[] text1Words, int text1From, int text1To, int[] text2Words,
+        int text2From, int text2To, EditScript script, DiffBudget.Meter meter) {
+      MyersDiff.diff(text1Words, text1From, text1To, text2Words, text2From, text2To, script,
+          meter);
+    }
+  },
+
+  /**
+   * Anchors on rare common words, see {@link HistogramDiff}
+   */
+  HISTOGRAM {
+    @Override
+    void diffStripped(int[] text1Words, int text1From, int text1To, int[] text2Words,
+        int text2From, int text2To, EditScript script, DiffBudget.Meter meter) {
+      HistogramDiff.diff(text1Words, text1From, text1To, text2Words, text2From, text2To, script,
+          meter);
+    }
+  };
+
+  /**
+   * @param text1Words
+   * @param text2Words
+   * @return edit script turning the first sequence into the second one
+   */
+  public EditScript diff(int[] text1Words, int[] text2Words) {
+    return this.diff(text1Words, text2Words, DiffBudget.UNLIMITED.start());
+  }
+
+  /**
+   * @param text1Words
+   * @param text2Words
+   * @param meter
+   * @return edit script turning the first sequence into the second one
+   * @throws DiffBudget.ExceededException if the diff goes over the budget of the meter
+   */
+  public EditScript diff(int[] text1Words, int[] text2Words, DiffBudget.Meter meter) {
+    EditScript script = new EditScript(text1Words.length, text2Words.length);
+    this.diff(text1Words, 0, text1Words.length, text2Words, 0, text2Words.length, script, meter);
+    return script;
+  }
+
+  /**
+   * Diffs a part of both sequences into the given script, see
+   * {@link MyersDiff#diff(int[], int, int, int[], int, int, EditScript, DiffBudget.Meter)}.
+   */
+  public void diff(int[] text1Words, int text1From, int text1To, int[] text2Words, int text2From,
+      int text2To, EditScript script, DiffBudget.Meter meter) {
+    while (text1From < text1To && text2From < text2To
+        && text1Words[text1From] == text2Words[text2From]) {
+      text1From++;
+      text2From++;
+    }
+    while (text1To > text1From && text2To > text2From
+        && text1Words[text1To - 1] == text2Words[text2To - 1]) {
+      text1To--;
+      text2To--;
+    }
+
+    if (text1From == text1To) {
+      script.markInserted(text2From, text2To);
+    }
+    else if (text2From == text2To) {
+      script.markDeleted(text1From, text1To);
+    }
+    else {
+      this.diffStripped(text1Words, text1From, text1To, text2Words, text2From, text2To, script,
+          meter);
+    }
+  }
+
+  abstract void diffStripped(int[] text1Words, int text1From, int text1To, int[] text2Words,
+      int text2From, int text2To, EditScript script, DiffBudget.Meter meter);
+
+  /**
+   * @param name - algorithm name in any case, null for the default
+   * @return the algorithm with the given name
+   */
+  public static DiffAlgorithm fromName(String name) {
+    return name == null ? MYERS : valueOf(name.trim().toUpperCase());
+  }
+}
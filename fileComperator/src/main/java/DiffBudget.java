@@ -0,0 +1,94 @@
+/**
+ * Limits on the work spent on one file pair. A pair that is too large is reported as replaced
+ * without being read; a diff that goes over the edit distance or the time limit is stopped and the
+ * comparator falls back to a coarser result. A limit of 0 or less means no limit.
+ *
+ * @author tstoyanov
+ */
+public class DiffBudget {
+
+  public static final DiffBudget UNLIMITED = new DiffBudget(0, 0, 0);
+
+  private final long maxFileSize;
+
+  private final int maxEditDistance;
+
+  private final long maxMillis;
+
+  /**
+   * @param maxFileSize - maximum size in bytes of both files together
+   * @param maxEditDistance - maximum number of deleted plus inserted words, or lines when the
+   *          comparison already fell back to lines
+   * @param maxMillis - maximum time of one diff
+   */
+  public DiffBudget(long maxFileSize, int maxEditDistance, long maxMillis) {
+    this.maxFileSize = maxFileSize;
+    this.maxEditDistance = maxEditDistance;
+    this.maxMillis = maxMillis;
+  }
+
+  /**
+   * @param size1
+   * @param size2
+   * @return true when files of the given sizes may be read and diffed
+   */
+  public boolean allowsFileSize(long size1, long size2) {
+    return this.maxFileSize <= 0 || size1 + size2 <= this.maxFileSize;
+  }
+
+  @Override
+  public String toString() {
+    return this.maxFileSize + "/" + this.maxEditDistance + "/" + this.maxMillis;
+  }
+
+  /**
+   * @return a meter for one diff, its time limit starts now
+   */
+  public Meter start() {
+    return new Meter(this.maxEditDistance > 0 ? this.maxEditDistance : Integer.MAX_VALUE,
+        this.maxMillis > 0 ? System.nanoTime() + this.maxMillis * 1_000_000L : 0);
+  }
+
+  /**
+   * Checked by the diff algorithms while they run.
+   */
+  public static class Meter {
+
+    private final int maxEditDistance;
+
+    /**
+     * {@link System#nanoTime()} the diff has to end by, 0 for no limit
+     */
+    private final long deadline;
+
+    private Meter(int maxEditDistance, long deadline) {
+      this.maxEditDistance = maxEditDistance;
+      this.deadline = deadline;
+    }
+
+    /**
+     * @param editDistance - edit distance already known to be needed
+     * @throws ExceededException if the edit distance or the time limit is exceeded
+     */
+    public void check(int editDistance) {
+      if (editDistance > this.maxEditDistance) {
+        throw new ExceededException("edit distance over " + this.maxEditDistance);
+      }
+      if (this.deadline != 0 && System.nanoTime() - this.deadline > 0) {
+        throw new ExceededException("time limit exceeded");
+      }
+    }
+  }
+
+  /**
+   * Thrown from inside a diff that went over its budget.
+   */
+  public static class ExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private ExceededException(String message) {
+      super(message, null, false, false);
+    }
+  }
+}
@@ -0,0 +1,249 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content digests of files, optionally persisted between runs. An entry is reused as long as the
+ * size and the last modified time of the file are the same as when the digest was computed, so an
+ * unchanged tree is not read again.
+ *
+ * @author tstoyanov
+ */
+public class DigestCache {
+
+  private static final String ALGORITHM = "SHA-256";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final Path cacheFile;
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  private volatile boolean modified;
+
+  /**
+   * @param cacheFile - file to load the digests from and to save them to, null for a cache that
+   *          lives only during the run
+   * @throws IOException
+   */
+  public DigestCache(Path cacheFile) throws IOException {
+    this.cacheFile = cacheFile;
+    if (cacheFile != null && Files.exists(cacheFile)) {
+      this.load();
+    }
+  }
+
+  /**
+   * @param file1
+   * @param file2
+   * @return true when both files have the same size and the same content digest
+   * @throws IOException
+   */
+  public boolean haveSameContent(Path file1, Path file2) throws IOException {
+    BasicFileAttributes attributes1 = Files.readAttributes(file1, BasicFileAttributes.class);
+    BasicFileAttributes attributes2 = Files.readAttributes(file2, BasicFileAttributes.class);
+    if (attributes1.size() != attributes2.size()) {
+      return false;
+    }
+    return this.getDigest(file1, attributes1).equals(this.getDigest(file2, attributes2));
+  }
+
+  /**
+   * Same as {@link #haveSameContent(Path, Path)} for scanned files, whose attributes are already
+   * known. Two archive entries are compared by size and CRC only.
+   *
+   * @param file1
+   * @param file2
+   * @return true when both files have the same size and the same content digest
+   * @throws IOException
+   */
+  public boolean haveSameContent(ScannedFile file1, ScannedFile file2) throws IOException {
+    if (file1.getSize() != file2.getSize()) {
+      return false;
+    }
+    if (file1.getCrc() != ScannedFile.NO_CRC && file2.getCrc() != ScannedFile.NO_CRC) {
+      // archive entries, neither of them is inflated
+      return file1.getCrc() == file2.getCrc();
+    }
+    return this.getDigest(file1).equals(this.getDigest(file2));
+  }
+
+  /**
+   * @param file
+   * @return hex encoded content digest of the scanned file
+   * @throws IOException
+   */
+  public String getDigest(ScannedFile file) throws IOException {
+    return this.getDigest(file.getPath(), file.getSize(), file.getLastModified());
+  }
+
+  /**
+   * @param file
+   * @return hex encoded content digest of the file
+   * @throws IOException
+   */
+  public String getDigest(Path file) throws IOException {
+    return this.getDigest(file, Files.readAttributes(file, BasicFileAttributes.class));
+  }
+
+  private String getDigest(Path file, BasicFileAttributes attributes) throws IOException {
+    return this.getDigest(file, attributes.size(), attributes.lastModifiedTime().toMillis());
+  }
+
+  private String getDigest(Path file, long size, long lastModified) throws IOException {
+    String key = key(file);
+
+    Entry entry = this.entries.get(key);
+    if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+      return entry.digest;
+    }
+
+    String digest = computeDigest(file);
+    this.entries.put(key, new Entry(size, lastModified, digest));
+    this.modified = true;
+    return digest;
+  }
+
+  /**
+   * @return the digest already known for the file with the given attributes, null if there is none
+   */
+  String getCachedDigest(Path file, long size, long lastModified) {
+    Entry entry = this.entries.get(key(file));
+    if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+      return entry.digest;
+    }
+    return null;
+  }
+
+  /**
+   * Adds a digest computed while the file was read for its words, see {@link TokenCache}.
+   */
+  void put(Path file, long size, long lastModified, String digest) {
+    this.entries.put(key(file), new Entry(size, lastModified, digest));
+    this.modified = true;
+  }
+
+  /**
+   * Adds a digest computed in an earlier run, see {@link TreeSnapshot}.
+   */
+  void remember(Path file, long size, long lastModified, String digest) {
+    this.entries.putIfAbsent(key(file), new Entry(size, lastModified, digest));
+  }
+
+  /**
+   * @return the absolute path of a file, the URI of an entry of an archive, which includes the
+   *         archive
+   */
+  private static String key(Path file) {
+    if (file.getFileSystem() != FileSystems.getDefault()) {
+      return file.toUri().toString();
+    }
+    return file.toAbsolutePath().normalize().toString();
+  }
+
+  /**
+   * Streams the file through the digest without loading it in memory.
+   *
+   * @param file
+   * @return hex encoded content digest
+   * @throws IOException
+   */
+  public static String computeDigest(Path file) throws IOException {
+    MessageDigest messageDigest = newMessageDigest();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try (InputStream in = Files.newInputStream(file)) {
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        messageDigest.update(buffer, 0, read);
+      }
+    }
+    return toHex(messageDigest.digest());
+  }
+
+  static MessageDigest newMessageDigest() {
+    try {
+      return MessageDigest.getInstance(ALGORITHM);
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(ALGORITHM + " is not supported", e);
+    }
+  }
+
+  static String toHex(byte[] bytes) {
+    char[] hexDigits = "0123456789abcdef".toCharArray();
+    char[] result = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      result[i * 2] = hexDigits[(bytes[i] >> 4) & 0xF];
+      result[i * 2 + 1] = hexDigits[bytes[i] & 0xF];
+    }
+    return new String(result);
+  }
+
+  /**
+   * Writes the digests to the cache file, if there is one and something changed.
+   *
+   * @throws IOException
+   */
+  public synchronized void save() throws IOException {
+    if (this.cacheFile == null || !this.modified) {
+      return;
+    }
+    Path parent = this.cacheFile.toAbsolutePath().getParent();
+    Path temp = Files.createTempFile(parent, "digests", ".tmp");
+    try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, Entry> e : this.entries.entrySet()) {
+        Entry entry = e.getValue();
+        writer.write(entry.size + "\t" + entry.lastModified + "\t" + entry.digest + "\t"
+            + e.getKey());
+        writer.newLine();
+      }
+    }
+    Files.move(temp, this.cacheFile, StandardCopyOption.REPLACE_EXISTING);
+    this.modified = false;
+  }
+
+  private void load() throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(this.cacheFile, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split("\t", 4);
+        if (fields.length != 4) {
+          continue;
+        }
+        try {
+          this.entries.put(fields[3],
+              new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]));
+        }
+        catch (NumberFormatException e) {
+          // broken line, the digest is computed again
+        }
+      }
+    }
+  }
+
+  private static class Entry {
+
+    private final long size;
+
+    private final long lastModified;
+
+    private final String digest;
+
+    private Entry(long size, long lastModified, String digest) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.digest = digest;
+    }
+  }
+}
@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Collects all files under a root folder. Every sub-folder is listed by its own fork/join task,
+ * so independent subtrees are read in parallel, and the attributes of each entry are read once
+ * while listing. The root folder of a zip file system is scanned the same way, with the CRC of
+ * every entry taken from the central directory. Symbolic links are followed, except links to a
+ * folder that is already being scanned above them, so link cycles end.
+ *
+ * @author tstoyanov
+ */
+public class DirectoryScanner {
+
+  /**
+   * Attribute view of the zip file system, holds the CRC of an entry
+   */
+  private static final String ZIP_VIEW = "zip";
+
+  private final ForkJoinPool pool;
+
+  /**
+   * @param parallelism - number of folders listed at the same time
+   */
+  public DirectoryScanner(int parallelism) {
+    this.pool = new ForkJoinPool(parallelism);
+  }
+
+  public DirectoryScanner() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param root
+   * @return map with key: path relative to the root, value: the scanned file, sorted by key
+   * @throws IOException
+   */
+  public Map<String, ScannedFile> scan(Path root) throws IOException {
+    List<ScannedFile> files;
+    BasicFileAttributes rootAttributes = Files.readAttributes(root, BasicFileAttributes.class);
+    if (rootAttributes.isDirectory()) {
+      boolean archive = root.getFileSystem().supportedFileAttributeViews().contains(ZIP_VIEW);
+      try {
+        Set<Object> ancestors = new HashSet<>();
+        ancestors.add(folderKey(root, rootAttributes));
+        files = this.pool.invoke(new ScanTask(root, "", archive, ancestors));
+      }
+      catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+    }
+    else {
+      files = new ArrayList<>();
+      files.add(new ScannedFile(String.valueOf(root.getFileName()), root, rootAttributes.size(),
+          rootAttributes.lastModifiedTime().toMillis()));
+    }
+
+    files.sort(Comparator.comparing(ScannedFile::getRelativePath));
+    Map<String, ScannedFile> result = new LinkedHashMap<>();
+    for (ScannedFile file : files) {
+      result.put(file.getRelativePath(), file);
+    }
+    return result;
+  }
+
+  /**
+   * Releases the scanner threads.
+   */
+  public void shutdown() {
+    this.pool.shutdown();
+  }
+
+  /**
+   * @return key that is the same for all paths of a folder, symbolic links included
+   */
+  private static Object folderKey(Path folder, BasicFileAttributes attributes) throws IOException {
+    Object key = attributes.fileKey();
+    return key != null ? key : folder.toRealPath();
+  }
+
+  private static class ScanTask extends RecursiveTask<List<ScannedFile>> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Path folder;
+
+    private final String prefix;
+
+    private final boolean archive;
+
+    /**
+     * Keys of the folder and the folders above it
+     */
+    private final Set<Object> ancestors;
+
+    private ScanTask(Path folder, String prefix, boolean archive, Set<Object> ancestors) {
+      this.folder = folder;
+      this.prefix = prefix;
+      this.archive = archive;
+      this.ancestors = ancestors;
+    }
+
+    @Override
+    protected List<ScannedFile> compute() {
+      List<ScannedFile> files = new ArrayList<>();
+      List<ScanTask> subFolders = new ArrayList<>();
+
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(this.folder)) {
+        for (Path entry : entries) {
+          BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+          String relativePath = this.prefix + entry.getFileName();
+          if (attributes.isDirectory()) {
+            Set<Object> ancestors = new HashSet<>(this.ancestors);
+            if (ancestors.add(folderKey(entry, attributes))) {
+              ScanTask task = new ScanTask(entry, relativePath + "/", this.archive, ancestors);
+              task.fork();
+              subFolders.add(task);
+            }
+          }
+          else {
+            long crc = this.archive
+                ? ((Number) Files.getAttribute(entry, ZIP_VIEW + ":crc")).longValue()
+                : ScannedFile.NO_CRC;
+            files.add(new ScannedFile(relativePath, entry, attributes.size(),
+                attributes.lastModifiedTime().toMillis(), crc));
+          }
+        }
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+
+      for (ScanTask task : subFolders) {
+        files.addAll(task.join());
+      }
+      return files;
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/**
+ * Result of a diff between two word sequences. Every word of the old text is either kept or
+ * deleted, every word of the new text is either kept or inserted; kept words form the longest
+ * common subsequence and appear in the same order on both sides.
+ *
+ * @author tstoyanov
+ */
+public class EditScript {
+
+  /**
+   * Unit the script was computed in. A script falls back to a coarser unit when the diff goes over
+   * its {@link DiffBudget}.
+   */
+  public enum Granularity {
+    WORDS, LINES, FILE
+  }
+
+  private final boolean[] deleted;
+
+  private final boolean[] inserted;
+
+  private Granularity granularity = Granularity.WORDS;
+
+  public EditScript(int oldLength, int newLength) {
+    this.deleted = new boolean[oldLength];
+    this.inserted = new boolean[newLength];
+  }
+
+  /**
+   * @param oldLength
+   * @param newLength
+   * @return script that deletes the whole old text and inserts the whole new one
+   */
+  public static EditScript replaced(int oldLength, int newLength) {
+    EditScript script = new EditScript(oldLength, newLength);
+    script.markDeleted(0, oldLength);
+    script.markInserted(0, newLength);
+    script.granularity = Granularity.FILE;
+    return script;
+  }
+
+  public int getOldLength() {
+    return this.deleted.length;
+  }
+
+  public int getNewLength() {
+    return this.inserted.length;
+  }
+
+  public Granularity getGranularity() {
+    return this.granularity;
+  }
+
+  void setGranularity(Granularity granularity) {
+    this.granularity = granularity;
+  }
+
+  /**
+   * @return true when the script is coarser than word by word
+   */
+  public boolean isDegraded() {
+    return this.granularity != Granularity.WORDS;
+  }
+
+  /**
+   * @param index - position in the old text
+   * @return true when the word at the given position is not present in the new text
+   */
+  public boolean isDeleted(int index) {
+    return this.deleted[index];
+  }
+
+  /**
+   * @param index - position in the new text
+   * @return true when the word at the given position is not present in the old text
+   */
+  public boolean isInserted(int index) {
+    return this.inserted[index];
+  }
+
+  void markDeleted(int from, int to) {
+    for (int i = from; i < to; i++) {
+      this.deleted[i] = true;
+    }
+  }
+
+  void markInserted(int from, int to) {
+    for (int i = from; i < to; i++) {
+      this.inserted[i] = true;
+    }
+  }
+
+  /**
+   * @return number of deleted plus inserted words
+   */
+  public int getEditDistance() {
+    int distance = 0;
+    for (boolean d : this.deleted) {
+      if (d) {
+        distance++;
+      }
+    }
+    for (boolean d : this.inserted) {
+      if (d) {
+        distance++;
+      }
+    }
+    return distance;
+  }
+}
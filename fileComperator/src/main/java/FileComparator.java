@@ -1,30 +1,111 @@
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import javax.xml.stream.XMLStreamException;
 
 /**
- * LCS based file comparator
+ * LCS based file comparator. Instances keep no state between calls, so one comparator can be
+ * shared by several threads.
  *
  * @author tstoyanov, Ivo Popov
  */
 public class FileComparator {
 
-  private ArrayList<String> sequencesList;
-
-  private boolean isHTMLFormat;
-
   private static final String EDITED_COLOR = "#CB6D6D";
 
   private static final String DELETED_COLOR = "#CB6D6D";
 
   private static final String INSERTED_COLOR = "#99FFCC";
 
+  public static final String NO_DIFFERENCE = "No difference found!";
+
+  public static final String FILE_REPLACED = "Diff budget exceeded, file replaced";
+
+  public static final String COMPARED_BY_LINES = "Diff budget exceeded, compared line by line";
+
+  private static final String DIV_START =
+      "<div style=\"float:left;width:50%;overflow:scroll;white-space: nowrap;\">";
+
+  private static final String COMMON_SPAN = "<SPAN>";
+
+  private static final String EMPTY_LINE_SPAN =
+      "<SPAN style=\"background-color:#CB6D6D\"><br> </SPAN>";
+
+  private static final String BACKGROUND_COLOR = "background-color";
+
+  /**
+   * Length of the span tags around a word, without the style attribute
+   */
+  private static final int SPAN_OVERHEAD = 14;
+
+  private final DiffAlgorithm algorithm;
+
+  private final boolean lineLevelFirst;
+
+  private final DiffBudget budget;
+
+  /**
+   * True to compare XML files by their structure, see {@link XmlDiff}
+   */
+  private final boolean structuralXml;
+
+  public FileComparator() {
+    this(false);
+  }
+
+  /**
+   * @param lineLevelFirst - true to diff whole lines first and words only inside changed lines
+   */
+  public FileComparator(boolean lineLevelFirst) {
+    this(DiffAlgorithm.MYERS, lineLevelFirst);
+  }
+
+  /**
+   * @param algorithm - algorithm the words, and the lines if they go first, are diffed with
+   * @param lineLevelFirst - true to diff whole lines first and words only inside changed lines
+   */
+  public FileComparator(DiffAlgorithm algorithm, boolean lineLevelFirst) {
+    this(algorithm, lineLevelFirst, DiffBudget.UNLIMITED);
+  }
+
+  /**
+   * @param algorithm - algorithm the words, and the lines if they go first, are diffed with
+   * @param lineLevelFirst - true to diff whole lines first and words only inside changed lines
+   * @param budget - limits of one comparison, a pair over the limits gets a coarser result
+   */
+  public FileComparator(DiffAlgorithm algorithm, boolean lineLevelFirst, DiffBudget budget) {
+    this(algorithm, lineLevelFirst, budget, false);
+  }
+
+  /**
+   * @param algorithm - algorithm the words, and the lines if they go first, are diffed with
+   * @param lineLevelFirst - true to diff whole lines first and words only inside changed lines
+   * @param budget - limits of one comparison, a pair over the limits gets a coarser result
+   * @param structuralXml - true to compare well-formed XML files by their elements and
+   *        attributes instead of their words
+   */
+  public FileComparator(DiffAlgorithm algorithm, boolean lineLevelFirst, DiffBudget budget,
+      boolean structuralXml) {
+    this.algorithm = algorithm;
+    this.lineLevelFirst = lineLevelFirst;
+    this.budget = budget;
+    this.structuralXml = structuralXml;
+  }
+
+  /**
+   * @return description of the settings, results made with the same description are the same
+   */
+  @Override
+  public String toString() {
+    return this.algorithm + "/" + this.lineLevelFirst + "/" + this.structuralXml + "/"
+        + this.budget;
+  }
+
   /**
    * Compares the two files given as parameters
    *
@@ -35,25 +116,133 @@ public class FileComparator {
    * @throws IOException
    */
   public String Compare(Path file1, Path file2, String fileName) throws IOException {
+    return this.Compare(file1, file2, fileName, TokenSource.READ_FILES, TokenSource.READ_FILES);
+  }
 
-    String text1 = new String(Files.readAllBytes(Paths.get(file1.toUri())), StandardCharsets.UTF_8);
-    String text2 = new String(Files.readAllBytes(Paths.get(file2.toUri())), StandardCharsets.UTF_8);
-    this.isHTMLFormat = false;
+  /**
+   * Same as {@link #Compare(Path, Path, String)} with the words of the files taken from the given
+   * sources.
+   *
+   * @param file1
+   * @param file2
+   * @param fileName
+   * @param tokens1 - source of the words of the first file
+   * @param tokens2 - source of the words of the second file
+   * @return string containing only the differences between the two files
+   * @throws IOException
+   */
+  public String Compare(Path file1, Path file2, String fileName, TokenSource tokens1,
+      TokenSource tokens2) throws IOException {
+    return this.Compare(file1, file2, fileName, tokens1, tokens2, new FileMetrics(fileName));
+  }
 
-    text1 = this.removeNewLineBetweenOpenAndCloseTags(text1);
-    text2 = this.removeNewLineBetweenOpenAndCloseTags(text2);
+  /**
+   * Same as {@link #Compare(Path, Path, String, TokenSource, TokenSource)}, counting the work done
+   * for the pair in the given metrics.
+   *
+   * @param file1
+   * @param file2
+   * @param fileName
+   * @param tokens1 - source of the words of the first file
+   * @param tokens2 - source of the words of the second file
+   * @param metrics - metrics of the pair
+   * @return string containing only the differences between the two files
+   * @throws IOException
+   */
+  public String Compare(Path file1, Path file2, String fileName, TokenSource tokens1,
+      TokenSource tokens2, FileMetrics metrics) throws IOException {
+    return this.Compare(file1, file2, fileName, tokens1, tokens2, metrics, null);
+  }
 
-    text1 = this.normalizeTextAndPrepareForHTMLOutput(text1);
-    text2 = this.normalizeTextAndPrepareForHTMLOutput(text2);
-    this.sequencesList = this.createSequencesList(text1, text2);
-    String result = this.putColorMarksSideBySide(text1, text2, this.sequencesList, EDITED_COLOR,
-        INSERTED_COLOR, DELETED_COLOR, fileName);
+  /**
+   * Same as {@link #Compare(Path, Path, String, TokenSource, TokenSource, FileMetrics)}, writing
+   * the changed lines of a pair compared by its words to the given page of the HTML report. The
+   * page is not written when no difference is found.
+   *
+   * @param file1
+   * @param file2
+   * @param fileName
+   * @param tokens1 - source of the words of the first file
+   * @param tokens2 - source of the words of the second file
+   * @param metrics - metrics of the pair
+   * @param page - page of the pair in the HTML report, null if there is none
+   * @return string containing only the differences between the two files
+   * @throws IOException
+   */
+  public String Compare(Path file1, Path file2, String fileName, TokenSource tokens1,
+      TokenSource tokens2, FileMetrics metrics, HtmlReport.FilePage page) throws IOException {
+
+    long size1 = Files.size(file1);
+    long size2 = Files.size(file2);
+    metrics.setBytes(size1 + size2);
+    if (!this.budget.allowsFileSize(size1, size2)) {
+      metrics.setOutcome(FileMetrics.Outcome.REPLACED);
+      return fileName + System.lineSeparator() + FILE_REPLACED;
+    }
+    long start = System.nanoTime();
+    if (BinaryDiff.isBinary(file1) || BinaryDiff.isBinary(file2)) {
+      metrics.setOutcome(FileMetrics.Outcome.BINARY);
+      String differences = fileName + System.lineSeparator()
+          + String.join(System.lineSeparator(), BinaryDiff.compare(file1, file2));
+      metrics.addDiffNanos(System.nanoTime() - start);
+      return differences;
+    }
+    List<String> xmlDifferences = null;
+    boolean xmlOverBudget = false;
+    try {
+      xmlDifferences = this.compareXml(file1, file2);
+    }
+    catch (DiffBudget.ExceededException e) {
+      xmlOverBudget = true;
+    }
+    metrics.addDiffNanos(System.nanoTime() - start);
+    if (xmlDifferences != null) {
+      metrics.setOutcome(FileMetrics.Outcome.XML);
+      return fileName + System.lineSeparator() + (xmlDifferences.isEmpty() ? NO_DIFFERENCE
+          : String.join(System.lineSeparator(), xmlDifferences));
+    }
+    start = System.nanoTime();
+    TokenDictionary dictionary = new TokenDictionary();
+    int[] text1Words = tokens1.tokenize(file1, dictionary);
+    int[] text2Words = tokens2.tokenize(file2, dictionary);
+    metrics.setTokens(text1Words.length, text2Words.length);
+    metrics.addReadNanos(System.nanoTime() - start);
+
+    start = System.nanoTime();
+    EditScript sequencesList =
+        this.createSequencesList(text1Words, text2Words, dictionary, xmlOverBudget);
+    metrics.setEditDistance(sequencesList.getEditDistance());
+    metrics.addDiffNanos(System.nanoTime() - start);
+    if (sequencesList.getGranularity() == EditScript.Granularity.FILE) {
+      metrics.setOutcome(FileMetrics.Outcome.REPLACED);
+      return fileName + System.lineSeparator() + FILE_REPLACED;
+    }
 
-    return result;
+    start = System.nanoTime();
+    StringBuilder finalLeftSide =
+        new StringBuilder(this.estimateRenderedLength(text1Words, dictionary));
+    StringBuilder finalRightSide =
+        new StringBuilder(this.estimateRenderedLength(text2Words, dictionary));
+    this.putColorMarksSideBySide(text1Words, text2Words, sequencesList, dictionary, EDITED_COLOR,
+        INSERTED_COLOR, DELETED_COLOR, finalLeftSide, finalRightSide);
+
+    String differences = this.fixBrokenTags(finalLeftSide, finalRightSide, fileName);
+    if (page != null && !differences.endsWith(NO_DIFFERENCE)) {
+      page.write(text1Words, text2Words, sequencesList, dictionary);
+    }
+    metrics.addRenderNanos(System.nanoTime() - start);
+    if (sequencesList.isDegraded()) {
+      // the note goes right after the file name line
+      return fileName + System.lineSeparator() + COMPARED_BY_LINES
+          + differences.substring(fileName.length());
+    }
+    return differences;
   }
 
   /**
-   * Compares the two files given as parameters and write the differences in HTML formatted file
+   * Compares the two files given as parameters and write the differences in HTML formatted file.
+   * The left column is streamed to the output while it is rendered, only the right column is kept
+   * in memory until the left one is complete.
    *
    * @param file1
    * @param file2
@@ -63,268 +252,335 @@ public class FileComparator {
    */
   public void Compare(Path file1, Path file2, Path output, String fileName) throws IOException {
 
-    String text1 = new String(Files.readAllBytes(Paths.get(file1.toUri())), StandardCharsets.UTF_8);
-    String text2 = new String(Files.readAllBytes(Paths.get(file2.toUri())), StandardCharsets.UTF_8);
-
-    this.isHTMLFormat = true;
-    text1 = this.normalizeTextAndPrepareForHTMLOutput(text1);
-    text2 = this.normalizeTextAndPrepareForHTMLOutput(text2);
-    this.sequencesList = this.createSequencesList(text1, text2);
-    String result = this.putColorMarksSideBySide(text1, text2, this.sequencesList, EDITED_COLOR,
-        INSERTED_COLOR, DELETED_COLOR, fileName);
-    PrintWriter pw = new PrintWriter(output.toFile());
-    pw.write(result);
-    pw.close();
-  }
-
-  private String removeNewLineBetweenOpenAndCloseTags(String text) {
-    text = text.replace("\n", "\r\n");
-    String[] el = Arrays.stream(text.split("\r\n")).filter(x -> !x.trim().equals(""))
-        .toArray(String[]::new);
-    StringBuilder sb = new StringBuilder();
-
-    for (int i = 0; i < el.length; i++) {
-      String tempEl = el[i];
-      if (!tempEl.trim().endsWith(">")) {
-        int count = i;
-
-        while (!tempEl.trim().endsWith(">")) {
-          sb.append(tempEl.replaceAll("\r", " ").replaceAll("\r\n", " ").replaceAll("\n", " "));
-          count++;
-          if (count >= el.length) {
-            System.out.println();
-          }
-          tempEl = el[count];
+    if (!this.budget.allowsFileSize(Files.size(file1), Files.size(file2))) {
+      try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+        writer.append("<p>").append(FILE_REPLACED).append("</p>");
+      }
+      return;
+    }
+    if (BinaryDiff.isBinary(file1) || BinaryDiff.isBinary(file2)) {
+      try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+        for (String line : BinaryDiff.compare(file1, file2)) {
+          writer.append("<p>").append(line).append("</p>");
         }
-        tempEl = tempEl.replaceAll(" />", "/>").replaceAll(" >", ">").replaceAll("> ", ">")
-            .replaceAll("/> ", "/>");
-        sb.append(tempEl + "\n");
-        i = count;
       }
-      else {
-        tempEl = tempEl.replaceAll(" />", "/>").replaceAll(" >", ">").replaceAll("> ", ">")
-            .replaceAll("/> ", "/>");
-        sb.append(tempEl + "\n");
+      return;
+    }
+    List<String> xmlDifferences = null;
+    boolean xmlOverBudget = false;
+    try {
+      xmlDifferences = this.compareXml(file1, file2);
+    }
+    catch (DiffBudget.ExceededException e) {
+      xmlOverBudget = true;
+    }
+    if (xmlDifferences != null) {
+      try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+        if (xmlDifferences.isEmpty()) {
+          writer.append("<p>").append(NO_DIFFERENCE).append("</p>");
+        }
+        for (String line : xmlDifferences) {
+          writer.append("<p>").append(line.replace("&", "&amp;").replace("<", "&lt;")
+              .replace(">", "&gt;")).append("</p>");
+        }
+      }
+      return;
+    }
+    TokenDictionary dictionary = new TokenDictionary();
+    int[] text1Words = ChunkedFileReader.tokenize(file1, dictionary, false);
+    int[] text2Words = ChunkedFileReader.tokenize(file2, dictionary, false);
+    EditScript sequencesList =
+        this.createSequencesList(text1Words, text2Words, dictionary, xmlOverBudget);
+    try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+      if (sequencesList.getGranularity() == EditScript.Granularity.FILE) {
+        writer.append("<p>").append(FILE_REPLACED).append("</p>");
+        return;
+      }
+      if (sequencesList.isDegraded()) {
+        writer.append("<p>").append(COMPARED_BY_LINES).append("</p>");
       }
+      StringBuilder finalRightSide =
+          new StringBuilder(this.estimateRenderedLength(text2Words, dictionary));
+      this.putColorMarksSideBySide(text1Words, text2Words, sequencesList, dictionary, EDITED_COLOR,
+          INSERTED_COLOR, DELETED_COLOR, writer, finalRightSide);
+      writer.append(finalRightSide);
     }
-    return sb.toString();
   }
 
   /**
-   * Normalizes given string with XML/HTML contents by replace <, >, \n, and \t with HTML tags
-   * and/or entities.
-   *
-   * @param text - raw input string
-   * @return normalized string
+   * @param file1
+   * @param file2
+   * @return structural differences of two XML files, null when XML files are compared as text
+   *         or one of the files is not well-formed XML
+   * @throws IOException
+   * @throws DiffBudget.ExceededException if the comparison goes over the budget
    */
-  private String normalizeTextAndPrepareForHTMLOutput(String text) {
-
-    text = text.trim();
-    text = text.replace("<", "&lt;");
-    text = text.replace(">", "&gt;");
-    text = text.replace("\r\n", "<br> ");
-    text = text.replace("\n", "<br> ");
-    text = text.replace("\t", " ");
-
-    while (text.contains("  ")) {
-      text = text.replace("  ", " ");
+  private List<String> compareXml(Path file1, Path file2) throws IOException {
+    if (!this.structuralXml || !XmlDiff.isXml(file1) || !XmlDiff.isXml(file2)) {
+      return null;
+    }
+    try {
+      return XmlDiff.compare(file1, file2, this.algorithm, this.budget.start());
+    }
+    catch (XMLStreamException e) {
+      // not well-formed, compared as text
+      return null;
     }
-
-    return text;
   }
 
   /**
-   * Finds a list of common sequences of given two texts.
+   * Finds a list of common sequences of given two texts with the configured diff algorithm. Every
+   * common word is matched to its first possible occurrence on both sides. A diff over the budget
+   * is redone line by line, and if that is over the budget too the whole file counts as replaced.
    *
-   * @param text1
-   * @param text2
-   * @return sequences list
+   * @param text1Words - word ids of the first text
+   * @param text2Words - word ids of the second text
+   * @param dictionary
+   * @param overBudget - true when a finer comparison already went over the budget, the texts are
+   *          then diffed line by line right away
+   * @return edit script whose kept words are the common sequence
    */
-  private ArrayList<String> createSequencesList(String text1, String text2) {
+  private EditScript createSequencesList(int[] text1Words, int[] text2Words,
+      TokenDictionary dictionary, boolean overBudget) {
+
+    EditScript script = null;
+    if (!overBudget) {
+      try {
+        DiffBudget.Meter meter = this.budget.start();
+        script = this.lineLevelFirst
+            ? HierarchicalDiff.diff(text1Words, text2Words, dictionary, this.algorithm, meter)
+            : this.algorithm.diff(text1Words, text2Words, meter);
+        meter.check(script.getEditDistance());
+      }
+      catch (DiffBudget.ExceededException e) {
+        script = null;
+      }
+    }
+    if (script == null) {
+      script = this.createCoarseScript(text1Words, text2Words, dictionary);
+      if (script.getGranularity() == EditScript.Granularity.FILE) {
+        return script;
+      }
+    }
+
+    int[] sequences = new int[text1Words.length];
+    int count = 0;
+    for (int i = 0; i < text1Words.length; i++) {
+      if (!script.isDeleted(i)) {
+        sequences[count++] = text1Words[i];
+      }
+    }
 
-    String[] text1Words = text1.split(" ");
-    String[] text2Words = text2.split(" ");
-    int text1WordCount = text1Words.length;
-    int text2WordCount = text2Words.length;
+    EditScript result = new EditScript(text1Words.length, text2Words.length);
+    result.setGranularity(script.getGranularity());
+    markFirstOccurrences(sequences, count, text1Words, result, true);
+    markFirstOccurrences(sequences, count, text2Words, result, false);
+    return result;
+  }
 
-    int[][] solutionMatrix = new int[text1WordCount + 1][text2WordCount + 1];
+  private EditScript createCoarseScript(int[] text1Words, int[] text2Words,
+      TokenDictionary dictionary) {
+    try {
+      EditScript script = HierarchicalDiff.diffLines(text1Words, text2Words, dictionary,
+          this.algorithm, this.budget.start());
+      script.setGranularity(EditScript.Granularity.LINES);
+      return script;
+    }
+    catch (DiffBudget.ExceededException e) {
+      return EditScript.replaced(text1Words.length, text2Words.length);
+    }
+  }
 
-    for (int i = text1WordCount - 1; i >= 0; i--) {
-      for (int j = text2WordCount - 1; j >= 0; j--) {
-        if (text1Words[i].equals(text2Words[j])) {
-          solutionMatrix[i][j] = solutionMatrix[i + 1][j + 1] + 1;
+  private static void markFirstOccurrences(int[] sequences, int count, int[] textWords,
+      EditScript script, boolean isOldText) {
+    int k = 0;
+    int last = 0;
+    for (int i = 0; i < textWords.length && k < count; i++) {
+      if (textWords[i] == sequences[k]) {
+        if (isOldText) {
+          script.markDeleted(last, i);
         }
         else {
-          solutionMatrix[i][j] = Math.max(solutionMatrix[i + 1][j], solutionMatrix[i][j + 1]);
+          script.markInserted(last, i);
         }
+        last = i + 1;
+        k++;
       }
     }
-
-    int i = 0, j = 0;
-    ArrayList<String> resultList = new ArrayList<String>();
-    while (i < text1WordCount && j < text2WordCount) {
-      if (text1Words[i].equals(text2Words[j])) {
-        resultList.add(text2Words[j]);
-        i++;
-        j++;
-      }
-      else if (solutionMatrix[i + 1][j] >= solutionMatrix[i][j + 1]) {
-        i++;
-      }
-      else {
-        j++;
-      }
+    if (isOldText) {
+      script.markDeleted(last, textWords.length);
+    }
+    else {
+      script.markInserted(last, textWords.length);
     }
+  }
 
-    return resultList;
+  private int estimateRenderedLength(int[] textWords, TokenDictionary dictionary) {
+    long length = DIV_START.length();
+    for (int word : textWords) {
+      length += dictionary.getWord(word).length() + SPAN_OVERHEAD;
+    }
+    return (int) Math.min(length, Integer.MAX_VALUE - 8);
   }
 
   /**
    * Put colored marks for edited/inserted/deleted text. Views a two compared files side by side.
+   * Walks the edit script once; the line breaks of the current line are counted while it is
+   * written, so both columns are kept aligned without scanning the output again.
    *
-   * @param text1
-   * @param text2
+   * @param text1Words
+   * @param text2Words
    * @param sequencesList
+   * @param dictionary
    * @param editedColor
    * @param insertedColor
    * @param deletedColor
-   * @param fileName
-   * @return colored result text in HTML format or txt file whit difference
+   * @param finalLeftSide - receives the left column of the HTML view
+   * @param finalRightSide - receives the right column of the HTML view
+   * @throws IOException
    */
-  private String putColorMarksSideBySide(String text1, String text2,
-      ArrayList<String> sequencesList, String editedColor, String insertedColor,
-      String deletedColor, String fileName) {
-
-    StringBuffer stringBufferLeft = new StringBuffer();
-    StringBuffer stringBufferRight = new StringBuffer();
-
-    StringBuilder finalLeftSide = new StringBuilder();
-    StringBuilder finalRightSide = new StringBuilder();
-
-    finalLeftSide
-        .append("<div style=\"float:left;width:50%;overflow:scroll;white-space: nowrap;\">");
-    finalRightSide
-        .append("<div style=\"float:left;width:50%;overflow:scroll;white-space: nowrap;\">");
-
-    if (text1 != null && sequencesList != null) {
-      String[] text1Words = text1.split(" ");
-      String[] text2Words = text2.split(" ");
-
-      int i = 0, j = 0, word1LastIndex = 0, word2LastIndex = 0;
-      for (int k = 0; k < sequencesList.size(); k++) {
-        for (i = word1LastIndex, j = word2LastIndex; i < text1Words.length
-            && j < text2Words.length;) {
-
-          if (text1Words[i].equals(sequencesList.get(k))
-              && text2Words[j].equals(sequencesList.get(k))) {
-            stringBufferLeft.append("<SPAN>" + sequencesList.get(k) + " </SPAN>");
-            stringBufferRight.append("<SPAN>" + sequencesList.get(k) + " </SPAN>");
-            word1LastIndex = i + 1;
-            word2LastIndex = j + 1;
-            i = text1Words.length;
-            j = text2Words.length;
-          }
-          else if (!text1Words[i].equals(sequencesList.get(k))
-              && !text2Words[j].equals(sequencesList.get(k))) {
-            for (; i < text1Words.length && !text1Words[i].equals(sequencesList.get(k)); i++) {
-              stringBufferLeft.append("<SPAN style=\"background-color:" + deletedColor + "\">"
-                  + text1Words[i] + " </SPAN>");
-            }
-            for (; j < text2Words.length && !text2Words[j].equals(sequencesList.get(k)); j++) {
-              stringBufferRight.append("<SPAN style=\"background-color:" + insertedColor + "\">"
-                  + text2Words[j] + " </SPAN>");
-            }
-          }
-          else if (!text1Words[i].equals(sequencesList.get(k))) {
-            for (; i < text1Words.length && !text1Words[i].equals(sequencesList.get(k)); i++) {
-              stringBufferLeft.append("<SPAN style=\"background-color:" + deletedColor + "\">"
-                  + text1Words[i] + " </SPAN>");
-              if (text1Words[i].endsWith("<br>")) {
-                stringBufferRight.append("<br> ");
-
-              }
-            }
-          }
-          else if (!text2Words[j].equals(sequencesList.get(k))) {
-            for (; j < text2Words.length && !text2Words[j].equals(sequencesList.get(k)); j++) {
-              stringBufferRight.append("<SPAN style=\"background-color:" + insertedColor + "\">"
-                  + text2Words[j] + " </SPAN>");
-              if (text2Words[j].endsWith("<br>")) {
-                stringBufferLeft.append("<br> ");
-              }
-            }
-          }
-          if (stringBufferLeft.toString().endsWith("<br> </SPAN>")
-              || stringBufferRight.toString().endsWith("<br> </SPAN>")) {
-            boolean isAddedLeft = false;
-            boolean isAddedRight = false;
-            long countBRLeft = Arrays.stream(stringBufferLeft.toString().split(" "))
-                .filter(x -> x.endsWith("<br>")).count();
-            long countBRRight = Arrays.stream(stringBufferRight.toString().split(" "))
-                .filter(x -> x.endsWith("<br>")).count();
-            if (countBRLeft != countBRRight) {
-              if (countBRLeft > countBRRight) {
-                if (stringBufferRight.toString().contains("background-color")) {
-                  finalRightSide.append(stringBufferRight);
-                  isAddedRight = true;
-                }
-                for (int l = 0; l < Math.abs(countBRLeft - countBRRight); l++) {
-                  finalRightSide.append("<SPAN style=\"background-color:#CB6D6D\"><br> </SPAN>");
-                }
-              }
-              else {
-                if (stringBufferLeft.toString().contains("background-color")) {
-                  finalLeftSide.append(stringBufferLeft);
-                  isAddedLeft = true;
-                }
-                for (int l = 0; l < Math.abs(countBRLeft - countBRRight); l++) {
-                  finalLeftSide.append("<SPAN style=\"background-color:#CB6D6D\"><br> </SPAN>");
-                }
-              }
-            }
-
-            if (!isAddedLeft) {
-              finalLeftSide.append(stringBufferLeft);
-            }
-            if (!isAddedRight) {
-              finalRightSide.append(stringBufferRight);
-            }
-
-            stringBufferLeft = new StringBuffer();
-            stringBufferRight = new StringBuffer();
+  private void putColorMarksSideBySide(int[] text1Words, int[] text2Words,
+      EditScript sequencesList, TokenDictionary dictionary, String editedColor,
+      String insertedColor, String deletedColor, Appendable finalLeftSide,
+      Appendable finalRightSide) throws IOException {
 
-          }
-        }
+    String deletedSpan = "<SPAN style=\"background-color:" + deletedColor + "\">";
+    String insertedSpan = "<SPAN style=\"background-color:" + insertedColor + "\">";
+    PendingLine left = new PendingLine();
+    PendingLine right = new PendingLine();
+
+    finalLeftSide.append(DIV_START);
+    finalRightSide.append(DIV_START);
+
+    int i = 0, j = 0;
+    while (true) {
+      int nextI = i;
+      while (nextI < text1Words.length && sequencesList.isDeleted(nextI)) {
+        nextI++;
+      }
+      int nextJ = j;
+      while (nextJ < text2Words.length && sequencesList.isInserted(nextJ)) {
+        nextJ++;
+      }
+      if (nextI == text1Words.length || nextJ == text2Words.length) {
+        // words after the last common word stay pending and are not written
+        break;
       }
-      for (; word1LastIndex < text1Words.length; word1LastIndex++) {
-        stringBufferLeft.append("<SPAN style=\"background-color:" + deletedColor + "\">"
-            + text1Words[word1LastIndex] + " </SPAN>");
-        if (text1Words[word1LastIndex].endsWith("<br>")) {
-          stringBufferRight.append("<br>");
 
+      if (nextI > i && nextJ > j) {
+        for (; i < nextI; i++) {
+          left.appendWord(deletedSpan, dictionary, text1Words[i], true);
+        }
+        for (; j < nextJ; j++) {
+          right.appendWord(insertedSpan, dictionary, text2Words[j], true);
         }
+        this.flushCompletedLine(left, right, finalLeftSide, finalRightSide);
       }
-      for (; word2LastIndex < text2Words.length; word2LastIndex++) {
-        stringBufferRight.append("<SPAN style=\"background-color:" + insertedColor + "\">"
-            + text2Words[word2LastIndex] + " </SPAN>");
-        if (text2Words[word2LastIndex].endsWith("<br>")) {
-          stringBufferLeft.append("<br>");
-
+      else if (nextI > i) {
+        for (; i < nextI; i++) {
+          left.appendWord(deletedSpan, dictionary, text1Words[i], true);
+          if (dictionary.isLineBreak(text1Words[i])) {
+            right.appendLineBreak();
+          }
         }
+        this.flushCompletedLine(left, right, finalLeftSide, finalRightSide);
+      }
+      else if (nextJ > j) {
+        for (; j < nextJ; j++) {
+          right.appendWord(insertedSpan, dictionary, text2Words[j], true);
+          if (dictionary.isLineBreak(text2Words[j])) {
+            left.appendLineBreak();
+          }
+        }
+        this.flushCompletedLine(left, right, finalLeftSide, finalRightSide);
       }
-    }
 
-    stringBufferLeft.append("</div>");
-    stringBufferRight.append("</div>");
+      left.appendWord(COMMON_SPAN, dictionary, text1Words[i++], false);
+      right.appendWord(COMMON_SPAN, dictionary, text2Words[j++], false);
+      this.flushCompletedLine(left, right, finalLeftSide, finalRightSide);
+    }
 
     finalLeftSide.append("</div>");
     finalRightSide.append("</div>");
+  }
 
-    if (this.isHTMLFormat) {
-      return finalLeftSide.toString() + finalRightSide.toString();
+  /**
+   * Moves the pending words to the columns once one of the sides ended a line. The side with less
+   * line breaks is padded with empty marked lines.
+   */
+  private void flushCompletedLine(PendingLine left, PendingLine right, Appendable finalLeftSide,
+      Appendable finalRightSide) throws IOException {
+    if (!left.endsWithLineBreak && !right.endsWithLineBreak) {
+      return;
     }
-    else {
-      return this.fixBrokenTags(finalLeftSide, finalRightSide, fileName);
+    boolean isAddedLeft = false;
+    boolean isAddedRight = false;
+    if (left.lineBreaks > right.lineBreaks) {
+      if (right.hasMarks) {
+        finalRightSide.append(right.text);
+        isAddedRight = true;
+      }
+      for (int l = 0; l < left.lineBreaks - right.lineBreaks; l++) {
+        finalRightSide.append(EMPTY_LINE_SPAN);
+      }
+    }
+    else if (left.lineBreaks < right.lineBreaks) {
+      if (left.hasMarks) {
+        finalLeftSide.append(left.text);
+        isAddedLeft = true;
+      }
+      for (int l = 0; l < right.lineBreaks - left.lineBreaks; l++) {
+        finalLeftSide.append(EMPTY_LINE_SPAN);
+      }
+    }
+
+    if (!isAddedLeft) {
+      finalLeftSide.append(left.text);
+    }
+    if (!isAddedRight) {
+      finalRightSide.append(right.text);
+    }
+
+    left.clear();
+    right.clear();
+  }
+
+  /**
+   * Words of one side written since the last completed line
+   */
+  private static class PendingLine {
+
+    private final StringBuilder text = new StringBuilder(256);
+
+    private int lineBreaks;
+
+    private boolean endsWithLineBreak;
+
+    private boolean hasMarks;
+
+    private void appendWord(String span, TokenDictionary dictionary, int word, boolean marked) {
+      String value = dictionary.getWord(word);
+      this.text.append(span).append(value).append(" </SPAN>");
+      this.endsWithLineBreak = dictionary.isLineBreak(word);
+      if (this.endsWithLineBreak) {
+        this.lineBreaks++;
+      }
+      if (!this.hasMarks) {
+        this.hasMarks = marked || value.contains(BACKGROUND_COLOR);
+      }
+    }
+
+    private void appendLineBreak() {
+      this.text.append("<br> ");
+      this.lineBreaks++;
+      this.endsWithLineBreak = false;
+    }
+
+    private void clear() {
+      this.text.setLength(0);
+      this.lineBreaks = 0;
+      this.endsWithLineBreak = false;
+      this.hasMarks = false;
     }
   }
 
@@ -416,7 +672,7 @@ public class FileComparator {
       }
     }
     if (result.toString().trim().equals(fileName)) {
-      result.append("No difference found!");
+      result.append(NO_DIFFERENCE);
       return result.toString();
     }
 
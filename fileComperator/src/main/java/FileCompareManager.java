@@ -7,11 +7,23 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * TODO description
@@ -19,53 +31,524 @@ import java.util.Map;
  * @author tstoyanov
  */
 public class FileCompareManager {
+
+  private static final String VIRTUAL_THREADS = "virtual";
+
+  /**
+   * Diff mode that compares lines first and words only inside changed lines
+   */
+  private static final String HIERARCHICAL_DIFF = "hierarchical";
+
+  /**
+   * Diff mode that compares XML files by their structure and other files word by word
+   */
+  private static final String XML_DIFF = "xml";
+
+  private static final String REPORT_CACHE_FILE = "reports.snapshot";
+
+  /**
+   * Number of comparisons allowed to run ahead of the oldest one that is not written yet, per
+   * worker thread
+   */
+  private static final int PENDING_PER_THREAD = 4;
+
+  private static final int DEFAULT_SLOWEST_FILES = 10;
+
   public static void main(String[] args) throws IOException {
 
     BufferedReader bf = new BufferedReader(new InputStreamReader(System.in));
 
+    run(System.getProperties(), null, null);
+  }
+
+  /**
+   * Compares the two trees and writes the report. Every setting is read from the given properties,
+   * under the same keys the command line uses.
+   *
+   * @param settings
+   * @param sharedDigestCache - digest cache kept between runs, null to use the digest cache file of
+   *        the settings
+   * @param tokenCache - source of the words of files that have no snapshot, null to read them
+   * @throws IOException
+   */
+  static void run(Properties settings, DigestCache sharedDigestCache, TokenSource tokenCache)
+      throws IOException {
+
+    String versionFolders = settings.getProperty("Enter version folders");
+    if (versionFolders != null) {
+      compareVersions(settings, versionFolders.split(File.pathSeparator), sharedDigestCache,
+          tokenCache);
+      return;
+    }
+
+    RunMetrics metrics = new RunMetrics();
+    metrics.startPhase("load");
     File rootSourceFolder = new File(
-        System.getProperty("Enter sorce folder"));
+        settings.getProperty("Enter sorce folder"));
     File rootDestinationFolder = new File(
-        System.getProperty("Enter destination folder"));
-    FileComparator compareLineByLine = new FileComparator();
+        settings.getProperty("Enter destination folder"));
+    FileComparator compareLineByLine = newComparator(settings);
+    DigestCache digestCache = sharedDigestCache != null ? sharedDigestCache
+        : newDigestCache(settings);
+    // archives are compared in place, they stay open until the report is complete
+    try (ArchiveRoot sourceRoot = ArchiveRoot.open(rootSourceFolder.toPath());
+        ArchiveRoot destinationRoot = ArchiveRoot.open(rootDestinationFolder.toPath())) {
+      compareTrees(settings, metrics, compareLineByLine, digestCache, tokenCache, sourceRoot,
+          destinationRoot);
+    }
+  }
+
+  /**
+   * Compares the files of the two roots and writes the report, see
+   * {@link #run(Properties, DigestCache, TokenSource)}.
+   *
+   * @param settings
+   * @param metrics - metrics of the run
+   * @param compareLineByLine
+   * @param digestCache
+   * @param tokenCache - source of the words of files that have no snapshot, null to read them
+   * @param sourceRoot
+   * @param destinationRoot
+   * @throws IOException
+   */
+  private static void compareTrees(Properties settings, RunMetrics metrics,
+      FileComparator compareLineByLine, DigestCache digestCache, TokenSource tokenCache,
+      ArchiveRoot sourceRoot, ArchiveRoot destinationRoot) throws IOException {
+    String snapshotLocation = settings.getProperty("Enter snapshot folder");
+    Path snapshotFolder = snapshotLocation == null ? null
+        : Files.createDirectories(Paths.get(snapshotLocation));
+    TreeSnapshot sourceSnapshot = snapshotFolder == null ? null
+        : openSnapshot(snapshotFolder, sourceRoot.getPath(), digestCache);
+    TreeSnapshot destinationSnapshot = snapshotFolder == null ? null
+        : openSnapshot(snapshotFolder, destinationRoot.getPath(), digestCache);
+    ReportCache reportCache = snapshotFolder == null ? null
+        : new ReportCache(snapshotFolder.resolve(REPORT_CACHE_FILE),
+            compareLineByLine.toString());
+
+    Map<String, ScannedFile> sourceMap;
+    Map<String, ScannedFile> destinationMap;
+
+    metrics.startPhase("scan");
+    DirectoryScanner scanner = new DirectoryScanner();
+    try {
+      sourceMap = scanner.scan(sourceRoot.getPath());
+      destinationMap = scanner.scan(destinationRoot.getPath());
+    }
+    finally {
+      scanner.shutdown();
+    }
+    metrics.addScannedTree(sourceMap.size());
+    metrics.addScannedTree(destinationMap.size());
+    if (snapshotFolder != null) {
+      sourceSnapshot.track(sourceMap);
+      destinationSnapshot.track(destinationMap);
+    }
+    TokenSource filesTokens = tokenCache == null ? TokenSource.READ_FILES : tokenCache;
+    TokenSource sourceTokens = sourceSnapshot == null ? filesTokens : sourceSnapshot;
+    TokenSource destinationTokens = destinationSnapshot == null ? filesTokens : destinationSnapshot;
+    Map<String, ScannedFile> missingSourceFile = new LinkedHashMap<>();
 
-    Map<String, Path> sourceMap;
-    Map<String, Path> destinationMap;
+    String threads = settings.getProperty("Enter number of comparison threads");
+    int workerCount = threads == null || VIRTUAL_THREADS.equals(threads)
+        ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threads);
+    int maxPending = PENDING_PER_THREAD * workerCount;
+    ExecutorService executor = newComparisonExecutor(VIRTUAL_THREADS.equals(threads), workerCount);
+    Deque<Future<String>> pendingResults = new ArrayDeque<>();
 
-    sourceMap = FileUtils.getAllFilePathsFrom(rootSourceFolder);
-    destinationMap = FileUtils.getAllFilePathsFrom(rootDestinationFolder);
-    System.out.println(sourceMap.size());
-    System.out.println(destinationMap.size());
-    Map<String, Path> missingSourceFile = new LinkedHashMap<>();
+    Files.deleteIfExists(
+        Paths.get(settings.getProperty("Enter location to prev result file")));
+    File result = new File(
+        settings.getProperty("Enter Location to save result file and give name"));
+    String htmlLocation = settings.getProperty("Enter location of html report folder");
+
+    try (ReportWriter report = new ReportWriter(Paths.get(result.getAbsolutePath()));
+        HtmlReport htmlReport =
+            htmlLocation == null ? null : new HtmlReport(Paths.get(htmlLocation))) {
+      try {
+        metrics.startPhase("compare");
+        for (Map.Entry<String, ScannedFile> entry : sourceMap.entrySet()) {
+          if (destinationMap.containsKey(entry.getKey())) {
+            ScannedFile sourceFile = entry.getValue();
+            ScannedFile destinationFile = destinationMap.get(entry.getKey());
+            String fileName = String.valueOf(entry.getKey());
+            int htmlSlot = htmlReport == null ? -1 : htmlReport.reserve();
+            pendingResults.addLast(executor.submit(() -> compareFiles(compareLineByLine,
+                digestCache, sourceTokens, destinationTokens, reportCache, metrics, htmlReport,
+                htmlSlot, sourceFile, destinationFile, fileName)));
+            if (pendingResults.size() >= maxPending) {
+              report.write(awaitResult(pendingResults.removeFirst()));
+            }
+            destinationMap.remove(entry.getKey());
+          }
+          else {
+            missingSourceFile.putIfAbsent(entry.getKey(), entry.getValue());
+          }
+        }
 
-    StringBuilder sb = new StringBuilder();
-    for (Map.Entry<String, Path> entry : sourceMap.entrySet()) {
-      if (destinationMap.containsKey(entry.getKey())) {
-        sb.append(compareLineByLine.Compare(entry.getValue(), destinationMap.get(entry.getKey()),
-            String.valueOf(entry.getKey())) + System.lineSeparator());
-        destinationMap.remove(entry.getKey());
+        metrics.startPhase("moves");
+        Map<String, String> moves =
+            new MoveDetector(digestCache, executor).findMoves(missingSourceFile, destinationMap);
+        metrics.startPhase("compare");
+        for (Map.Entry<String, String> move : moves.entrySet()) {
+          ScannedFile sourceFile = missingSourceFile.remove(move.getValue());
+          ScannedFile destinationFile = destinationMap.remove(move.getKey());
+          String fileName = String.format("%s is moved from %s", move.getKey(), move.getValue());
+          int htmlSlot = htmlReport == null ? -1 : htmlReport.reserve();
+          pendingResults.addLast(executor.submit(() -> compareFiles(compareLineByLine,
+              digestCache, sourceTokens, destinationTokens, reportCache, metrics, htmlReport,
+              htmlSlot, sourceFile, destinationFile, fileName)));
+          if (pendingResults.size() >= maxPending) {
+            report.write(awaitResult(pendingResults.removeFirst()));
+          }
+        }
+        while (!pendingResults.isEmpty()) {
+          report.write(awaitResult(pendingResults.removeFirst()));
+        }
+      }
+      finally {
+        executor.shutdownNow();
+      }
+      metrics.startPhase("report");
+      if (!destinationMap.isEmpty()) {
+        for (Map.Entry<String, ScannedFile> res : destinationMap.entrySet()) {
+          report.write(String.format("this file %s is add in new version%n",
+              res.getValue().getPath().getFileName()));
+          if (htmlReport != null) {
+            htmlReport.addFile(htmlReport.reserve(), res.getKey(), "added");
+          }
+        }
       }
-      else {
-        missingSourceFile.putIfAbsent(entry.getKey(), entry.getValue());
+      if (!missingSourceFile.isEmpty()) {
+        for (Map.Entry<String, ScannedFile> res : missingSourceFile.entrySet()) {
+          report.write(String.format("this file %s is missing %n",
+              res.getValue().getPath().getFileName()));
+          if (htmlReport != null) {
+            htmlReport.addFile(htmlReport.reserve(), res.getKey(), "missing");
+          }
+        }
       }
     }
-    if (!destinationMap.isEmpty()) {
-      for (Map.Entry<String, Path> res : sourceMap.entrySet()) {
-        sb.append(String.format("this file %s is missing %n", res.getValue().getFileName()));
+    finally {
+      metrics.startPhase("save");
+      digestCache.save();
+      if (snapshotFolder != null) {
+        sourceSnapshot.save();
+        destinationSnapshot.save();
+        reportCache.save();
+      }
+      metrics.endPhase();
+      writeMetrics(settings, metrics);
+    }
+  }
+
+  /**
+   * Exports the metrics of the run and prints the slowest pairs, if a metrics file is set.
+   *
+   * @param settings
+   * @param metrics
+   * @throws IOException
+   */
+  private static void writeMetrics(Properties settings, RunMetrics metrics) throws IOException {
+    String metricsLocation = settings.getProperty("Enter location of metrics file");
+    if (metricsLocation == null) {
+      return;
+    }
+    metrics.write(Paths.get(metricsLocation));
+    long slowest = longProperty(settings, "Enter number of slowest files to show");
+    System.out.print(metrics.summary(slowest == 0 ? DEFAULT_SLOWEST_FILES : (int) slowest));
+  }
+
+  /**
+   * Compares every file with its next version across an ordered list of trees. Every tree is
+   * scanned once. All versions of a file are compared in one task, so the words of a version are
+   * taken from the token cache for its comparison with the next version, and files with the same
+   * content are read once. A file missing from a version is reported as missing in it and added in
+   * the version it comes back in.
+   *
+   * @param settings
+   * @param versionFolders - root folders or archives of the versions, oldest first
+   * @param sharedDigestCache - digest cache kept between runs, null to use the digest cache file of
+   *        the settings
+   * @param tokenCache - source of the words of the files, null for a new token cache
+   * @throws IOException
+   */
+  private static void compareVersions(Properties settings, String[] versionFolders,
+      DigestCache sharedDigestCache, TokenSource tokenCache) throws IOException {
+
+    RunMetrics metrics = new RunMetrics();
+    metrics.startPhase("load");
+    FileComparator comparator = newComparator(settings);
+    DigestCache digestCache = sharedDigestCache != null ? sharedDigestCache
+        : newDigestCache(settings);
+    long megabytes = longProperty(settings, "Enter token cache size in megabytes");
+    TokenSource tokens = tokenCache != null ? tokenCache : new TokenCache(digestCache,
+        (megabytes == 0 ? TokenCache.DEFAULT_MEGABYTES : megabytes) * 1024 * 1024);
+
+    List<ArchiveRoot> roots = new ArrayList<>();
+    String[] versionNames = new String[versionFolders.length];
+    try {
+      for (int i = 0; i < versionFolders.length; i++) {
+        Path folder = Paths.get(versionFolders[i]);
+        roots.add(ArchiveRoot.open(folder));
+        versionNames[i] = String.valueOf(folder.getFileName());
+      }
+
+      metrics.startPhase("scan");
+      List<Map<String, ScannedFile>> versions = new ArrayList<>();
+      // every relative path of every version, in the order they are first found
+      Set<String> relativePaths = new LinkedHashSet<>();
+      DirectoryScanner scanner = new DirectoryScanner();
+      try {
+        for (ArchiveRoot root : roots) {
+          Map<String, ScannedFile> files = scanner.scan(root.getPath());
+          versions.add(files);
+          relativePaths.addAll(files.keySet());
+          metrics.addScannedTree(files.size());
+        }
+      }
+      finally {
+        scanner.shutdown();
+      }
+
+      metrics.startPhase("compare");
+      String threads = settings.getProperty("Enter number of comparison threads");
+      int workerCount = threads == null || VIRTUAL_THREADS.equals(threads)
+          ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threads);
+      int maxPending = PENDING_PER_THREAD * workerCount;
+      ExecutorService executor =
+          newComparisonExecutor(VIRTUAL_THREADS.equals(threads), workerCount);
+      Deque<Future<String>> pendingResults = new ArrayDeque<>();
+
+      Files.deleteIfExists(
+          Paths.get(settings.getProperty("Enter location to prev result file")));
+      File result = new File(
+          settings.getProperty("Enter Location to save result file and give name"));
+      try (ReportWriter report = new ReportWriter(Paths.get(result.getAbsolutePath()))) {
+        try {
+          for (String relativePath : relativePaths) {
+            pendingResults.addLast(executor.submit(() -> compareVersionsOfFile(comparator,
+                digestCache, tokens, metrics, versions, versionNames, relativePath)));
+            if (pendingResults.size() >= maxPending) {
+              report.write(awaitResult(pendingResults.removeFirst()));
+            }
+          }
+          while (!pendingResults.isEmpty()) {
+            report.write(awaitResult(pendingResults.removeFirst()));
+          }
+        }
+        finally {
+          executor.shutdownNow();
+        }
       }
     }
-    if (!missingSourceFile.isEmpty()) {
-      for (Map.Entry<String, Path> res : missingSourceFile.entrySet()) {
-        sb.append(
-            String.format("this file %s is add in new version%n", res.getValue().getFileName()));
+    finally {
+      metrics.startPhase("save");
+      digestCache.save();
+      for (ArchiveRoot root : roots) {
+        root.close();
       }
+      metrics.endPhase();
+      writeMetrics(settings, metrics);
     }
+  }
 
-    Files.deleteIfExists(
-        Paths.get(System.getProperty("Enter location to prev result file")));
-    File result = new File(
-        System.getProperty("Enter Location to save result file and give name"));
-    byte[] data = sb.toString().getBytes();
-    Files.write(Paths.get(result.getAbsolutePath()), data);
+  /**
+   * Compares every version of one file with the next one. Runs on the worker threads.
+   *
+   * @return differences between the versions of the file
+   */
+  private static String compareVersionsOfFile(FileComparator comparator,
+      DigestCache digestCache, TokenSource tokens, RunMetrics metrics,
+      List<Map<String, ScannedFile>> versions, String[] versionNames, String relativePath) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 1; i < versions.size(); i++) {
+      ScannedFile oldFile = versions.get(i - 1).get(relativePath);
+      ScannedFile newFile = versions.get(i).get(relativePath);
+      if (oldFile != null && newFile != null) {
+        String fileName = String.format("%s %s -> %s", relativePath, versionNames[i - 1],
+            versionNames[i]);
+        result.append(compareFiles(comparator, digestCache, tokens, tokens, null, metrics, null,
+            -1, oldFile, newFile, fileName));
+      }
+      else if (oldFile != null) {
+        result.append(String.format("this file %s is missing in %s%n", relativePath,
+            versionNames[i]));
+      }
+      else if (newFile != null) {
+        result.append(String.format("this file %s is add in %s%n", relativePath,
+            versionNames[i]));
+      }
+    }
+    return result.toString();
+  }
+
+  /**
+   * @param settings
+   * @return comparator with the diff algorithm, mode and budget of the settings
+   */
+  private static FileComparator newComparator(Properties settings) {
+    DiffBudget budget = new DiffBudget(
+        longProperty(settings, "Enter maximum size of a file pair in bytes"),
+        (int) longProperty(settings, "Enter maximum edit distance per file"),
+        longProperty(settings, "Enter maximum diff time per file in milliseconds"));
+    DiffAlgorithm algorithm = DiffAlgorithm.fromName(settings.getProperty("Enter diff algorithm"));
+    String diffMode = settings.getProperty("Enter diff mode");
+    boolean lineLevelFirst = HIERARCHICAL_DIFF.equals(diffMode);
+    boolean structuralXml = XML_DIFF.equals(diffMode);
+    return new FileComparator(algorithm, lineLevelFirst, budget, structuralXml);
+  }
+
+  /**
+   * @param settings
+   * @return digest cache of the digest cache file of the settings, if there is one
+   * @throws IOException
+   */
+  private static DigestCache newDigestCache(Properties settings) throws IOException {
+    String digestCacheLocation = settings.getProperty("Enter location of digest cache file");
+    return new DigestCache(digestCacheLocation == null ? null : Paths.get(digestCacheLocation));
+  }
+
+  private static TreeSnapshot openSnapshot(Path snapshotFolder, Path root,
+      DigestCache digestCache) throws IOException {
+    return new TreeSnapshot(snapshotFolder.resolve(TreeSnapshot.fileName(root)), root,
+        digestCache);
+  }
+
+  /**
+   * @param settings
+   * @param key
+   * @return value of the numeric property, 0 when it is not set
+   */
+  static long longProperty(Properties settings, String key) {
+    String value = settings.getProperty(key);
+    return value == null ? 0 : Long.parseLong(value.trim());
+  }
+
+  /**
+   * Compares one pair of files. Runs on the worker threads. A pair that cannot be compared is
+   * reported as such, so it does not stop the other comparisons.
+   *
+   * @param comparator
+   * @param digestCache
+   * @param sourceTokens - source of the words of the source files
+   * @param destinationTokens - source of the words of the destination files
+   * @param reportCache - results of earlier runs, null to compare every pair
+   * @param metrics - metrics of the run, the pair is added to them
+   * @param htmlReport - HTML report the pair is added to, null if there is none
+   * @param htmlSlot - slot reserved for the pair in the HTML report
+   * @param sourceFile
+   * @param destinationFile
+   * @param fileName
+   * @return differences between the two files followed by a line separator
+   */
+  private static String compareFiles(FileComparator comparator, DigestCache digestCache,
+      TokenSource sourceTokens, TokenSource destinationTokens, ReportCache reportCache,
+      RunMetrics metrics, HtmlReport htmlReport, int htmlSlot, ScannedFile sourceFile,
+      ScannedFile destinationFile, String fileName) {
+    FileMetrics fileMetrics = new FileMetrics(fileName);
+    fileMetrics.setBytes(sourceFile.getSize() + destinationFile.getSize());
+    fileMetrics.start();
+    HtmlReport.FilePage page = htmlReport == null ? null : htmlReport.newPage(htmlSlot, fileName);
+    String result = null;
+    try {
+      if (digestCache.haveSameContent(sourceFile, destinationFile)) {
+        fileMetrics.setOutcome(FileMetrics.Outcome.IDENTICAL);
+        result = fileName + System.lineSeparator() + FileComparator.NO_DIFFERENCE
+            + System.lineSeparator();
+        return result;
+      }
+      if (reportCache != null) {
+        String cached = reportCache.get(digestCache.getDigest(sourceFile),
+            digestCache.getDigest(destinationFile));
+        // a changed pair is compared again when it needs a page in the HTML report
+        if (cached != null && (htmlReport == null || isNoDifference(cached))) {
+          fileMetrics.setOutcome(FileMetrics.Outcome.CACHED);
+          result = fileName + cached;
+          return result;
+        }
+      }
+      result = comparator.Compare(sourceFile.getPath(), destinationFile.getPath(), fileName,
+          sourceTokens, destinationTokens, fileMetrics, page) + System.lineSeparator();
+      if (reportCache != null) {
+        reportCache.put(digestCache.getDigest(sourceFile), digestCache.getDigest(destinationFile),
+            result.substring(fileName.length()));
+      }
+      return result;
+    }
+    catch (IOException | RuntimeException e) {
+      fileMetrics.setOutcome(FileMetrics.Outcome.FAILED);
+      return String.format("%s%nCould not be compared: %s%n", fileName, e);
+    }
+    finally {
+      fileMetrics.stop();
+      metrics.add(fileMetrics);
+      if (htmlReport != null) {
+        htmlReport.addPair(page, fileMetrics.getOutcome(),
+            result == null || !isNoDifference(result));
+      }
+    }
+  }
+
+  /**
+   * @param result - result of a pair, with or without the file name line
+   * @return true when no difference was found
+   */
+  private static boolean isNoDifference(String result) {
+    return result.endsWith(FileComparator.NO_DIFFERENCE + System.lineSeparator());
+  }
+
+  /**
+   * Waits for a comparison, the results are collected in submission order so the report does not
+   * depend on the thread scheduling.
+   *
+   * @param result
+   * @return the comparison result
+   * @throws IOException
+   */
+  private static String awaitResult(Future<String> result) throws IOException {
+    try {
+      return result.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Comparison interrupted");
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Creates the pool the file pairs are compared on.
+   *
+   * @param virtualThreads - true for a virtual thread per comparison when the JDK supports it
+   * @param workerCount - number of platform worker threads
+   * @return executor for the comparisons
+   */
+  private static ExecutorService newComparisonExecutor(boolean virtualThreads, int workerCount) {
+    if (virtualThreads) {
+      try {
+        return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+            .invoke(null);
+      }
+      catch (ReflectiveOperationException e) {
+        // JDK without virtual threads, fall back to platform threads
+      }
+    }
+    return Executors.newFixedThreadPool(workerCount, runnable -> {
+      Thread thread = new Thread(runnable, "file-compare-worker");
+      thread.setDaemon(true);
+      return thread;
+    });
   }
 }
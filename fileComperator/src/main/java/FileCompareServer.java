@@ -0,0 +1,475 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resident comparison server. Keeps the JVM, the content digests and the words of recently
+ * compared files between jobs, so repeated comparisons against the same baseline do not read and
+ * normalize it again. Listens on the loopback interface only.
+ * <p>
+ * A job is a POST to <code>/compare</code> with the settings of {@link FileCompareManager} as a
+ * JSON object of strings, for example
+ * <code>curl -H "X-Compare-Token: ..." -H "Content-Type: application/json"
+ * -d '{"Enter sorce folder": "/old", ...}'</code>. Settings not given in the job are taken from the
+ * system properties of the server. The response is sent when the report is written. A POST to
+ * <code>/shutdown</code> stops the server.
+ * <p>
+ * Every request has to carry the token printed when the server starts, and requests of web pages,
+ * which have an <code>Origin</code> header, are refused. A job may only set the files that are
+ * deleted and written, like the result file, to paths under the folder given with
+ * <code>Enter server output folder</code>; without that folder they are always taken from the
+ * system properties of the server. A job whose output files or folders overlap with those of a
+ * running job is refused, so jobs never write to or delete each other's files.
+ *
+ * @author tstoyanov
+ */
+public class FileCompareServer {
+
+  private static final String COMPARE_PATH = "/compare";
+
+  private static final String SHUTDOWN_PATH = "/shutdown";
+
+  private static final int DEFAULT_PORT = 8765;
+
+  private static final int DEFAULT_JOBS = 4;
+
+  private static final String TOKEN_HEADER = "X-Compare-Token";
+
+  /**
+   * Settings naming files and folders a job deletes or writes
+   */
+  private static final List<String> OUTPUT_SETTINGS = Arrays.asList(
+      "Enter location to prev result file", "Enter Location to save result file and give name",
+      "Enter location of html report folder", "Enter location of metrics file",
+      "Enter snapshot folder");
+
+  private final HttpServer server;
+
+  private final ExecutorService jobExecutor;
+
+  private final DigestCache digestCache;
+
+  private final TokenCache tokenCache;
+
+  /**
+   * Folder the output files of jobs have to be in, null if jobs may not set them
+   */
+  private final Path outputFolder;
+
+  /**
+   * Secret of this start of the server, expected in the {@value #TOKEN_HEADER} header
+   */
+  private final String token;
+
+  /**
+   * Output files and folders of the running jobs
+   */
+  private final Set<Path> outputsInUse = new HashSet<>();
+
+  /**
+   * @param port
+   * @param jobs - number of jobs run at the same time
+   * @param digestCache - digest cache shared by all jobs
+   * @param tokenCacheBytes - limit of the estimated size of the cached words
+   * @param outputFolder - folder the output files of jobs have to be in, null if jobs may not set
+   *          them
+   * @throws IOException
+   */
+  public FileCompareServer(int port, int jobs, DigestCache digestCache, long tokenCacheBytes,
+      Path outputFolder) throws IOException {
+    this.outputFolder = outputFolder == null ? null : outputFolder.toRealPath();
+    byte[] secret = new byte[32];
+    new SecureRandom().nextBytes(secret);
+    this.token = DigestCache.toHex(secret);
+    this.digestCache = digestCache;
+    this.tokenCache = new TokenCache(digestCache, tokenCacheBytes);
+    this.jobExecutor = Executors.newFixedThreadPool(jobs);
+    this.server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    this.server.setExecutor(this.jobExecutor);
+    this.server.createContext(COMPARE_PATH, this::compare);
+    this.server.createContext(SHUTDOWN_PATH, this::shutdown);
+  }
+
+  public static void main(String[] args) throws IOException {
+    Properties settings = System.getProperties();
+    long port = FileCompareManager.longProperty(settings, "Enter server port");
+    long jobs = FileCompareManager.longProperty(settings, "Enter number of concurrent jobs");
+    long megabytes =
+        FileCompareManager.longProperty(settings, "Enter token cache size in megabytes");
+    String digestCacheLocation = settings.getProperty("Enter location of digest cache file");
+    DigestCache digestCache = new DigestCache(
+        digestCacheLocation == null ? null : Paths.get(digestCacheLocation));
+    String outputLocation = settings.getProperty("Enter server output folder");
+
+    FileCompareServer server = new FileCompareServer(port == 0 ? DEFAULT_PORT : (int) port,
+        jobs == 0 ? DEFAULT_JOBS : (int) jobs, digestCache,
+        (megabytes == 0 ? TokenCache.DEFAULT_MEGABYTES : megabytes) * 1024 * 1024,
+        outputLocation == null ? null : Paths.get(outputLocation));
+    server.start();
+    System.out.println("Listening on " + server.server.getAddress());
+    System.out.println(TOKEN_HEADER + ": " + server.getToken());
+  }
+
+  /**
+   * @return secret every request has to send in the {@value #TOKEN_HEADER} header
+   */
+  public String getToken() {
+    return this.token;
+  }
+
+  public void start() {
+    this.server.start();
+  }
+
+  private void compare(HttpExchange exchange) throws IOException {
+    if (!this.accept(exchange)) {
+      return;
+    }
+    Properties settings = new Properties(System.getProperties());
+    try {
+      parseJson(readBody(exchange), settings);
+    }
+    catch (IllegalArgumentException e) {
+      this.respond(exchange, 400, "Job is not a JSON object of strings: " + e.getMessage());
+      return;
+    }
+    for (String key : OUTPUT_SETTINGS) {
+      if (settings.containsKey(key) && !this.isInOutputFolder(settings.getProperty(key))) {
+        this.respond(exchange, 403, key + " has to be in the server output folder");
+        return;
+      }
+    }
+    List<Path> outputs = this.reserveOutputs(settings);
+    if (outputs == null) {
+      this.respond(exchange, 409, "The output files of the job are used by a running job");
+      return;
+    }
+
+    long start = System.nanoTime();
+    try {
+      FileCompareManager.run(settings, this.digestCache, this.tokenCache);
+    }
+    catch (IOException | RuntimeException e) {
+      StringWriter trace = new StringWriter();
+      e.printStackTrace(new PrintWriter(trace));
+      this.respond(exchange, 500, trace.toString());
+      return;
+    }
+    finally {
+      this.releaseOutputs(outputs);
+    }
+    this.respond(exchange, 200, String.format("Report written to %s in %d ms%n",
+        settings.getProperty("Enter Location to save result file and give name"),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+  }
+
+  private void shutdown(HttpExchange exchange) throws IOException {
+    if (!this.accept(exchange)) {
+      return;
+    }
+    this.respond(exchange, 200, "Stopping");
+    // stopping waits for the open exchanges, this one included, so it runs on its own thread
+    new Thread(this::stop, "file-compare-server-stop").start();
+  }
+
+  /**
+   * Stops the server after the running jobs and saves the digest cache.
+   */
+  public void stop() {
+    this.server.stop(0);
+    this.jobExecutor.shutdown();
+    try {
+      this.jobExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      this.digestCache.save();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Refuses requests that are not a JSON POST with the token of the server or that come from a web
+   * page.
+   *
+   * @return true when the request may be handled
+   */
+  private boolean accept(HttpExchange exchange) throws IOException {
+    String token = exchange.getRequestHeaders().getFirst(TOKEN_HEADER);
+    String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+    if (!"POST".equals(exchange.getRequestMethod())) {
+      this.respond(exchange, 405, "Use POST");
+    }
+    else if (token == null || !MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+        this.token.getBytes(StandardCharsets.UTF_8))) {
+      this.respond(exchange, 401, "Missing or wrong " + TOKEN_HEADER);
+    }
+    else if (exchange.getRequestHeaders().containsKey("Origin")) {
+      this.respond(exchange, 403, "Requests of web pages are not accepted");
+    }
+    else if (contentType == null
+        || !contentType.trim().toLowerCase(Locale.ROOT).startsWith("application/json")) {
+      this.respond(exchange, 415, "Use Content-Type: application/json");
+    }
+    else {
+      return true;
+    }
+    exchange.getRequestBody().close();
+    return false;
+  }
+
+  /**
+   * @param location
+   * @return true when the location is in the output folder, symbolic links resolved
+   */
+  private boolean isInOutputFolder(String location) {
+    if (this.outputFolder == null) {
+      return false;
+    }
+    Path path = realLocation(location);
+    return path != null && path.startsWith(this.outputFolder);
+  }
+
+  /**
+   * Reserves the output files and folders of a job until {@link #releaseOutputs(List)}.
+   *
+   * @param settings - settings of the job
+   * @return the reserved outputs, null when one of them is in, contains or is an output of a
+   *         running job
+   */
+  private synchronized List<Path> reserveOutputs(Properties settings) {
+    List<Path> outputs = new ArrayList<>();
+    for (String key : OUTPUT_SETTINGS) {
+      String location = settings.getProperty(key);
+      if (location != null) {
+        Path output = realLocation(location);
+        outputs.add(output == null ? Paths.get(location).toAbsolutePath().normalize() : output);
+      }
+    }
+    for (Path output : outputs) {
+      for (Path used : this.outputsInUse) {
+        if (output.startsWith(used) || used.startsWith(output)) {
+          return null;
+        }
+      }
+    }
+    this.outputsInUse.addAll(outputs);
+    return outputs;
+  }
+
+  private synchronized void releaseOutputs(List<Path> outputs) {
+    this.outputsInUse.removeAll(outputs);
+  }
+
+  /**
+   * @param location
+   * @return absolute path of the location with symbolic links resolved, null if they cannot be
+   */
+  private static Path realLocation(String location) {
+    Path path = Paths.get(location).toAbsolutePath().normalize();
+    // the location itself may not exist yet, the real path of its nearest existing folder counts
+    Path existing = path;
+    while (existing != null && !Files.exists(existing)) {
+      existing = existing.getParent();
+    }
+    try {
+      return existing == null ? null : existing.toRealPath().resolve(existing.relativize(path));
+    }
+    catch (IOException e) {
+      return null;
+    }
+  }
+
+  private void respond(HttpExchange exchange, int status, String message) throws IOException {
+    byte[] body = message.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  private static String readBody(HttpExchange exchange) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    try (InputStream in = exchange.getRequestBody()) {
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        body.write(buffer, 0, read);
+      }
+    }
+    return new String(body.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Adds the members of a JSON object to the settings. Values have to be strings, numbers or
+   * booleans, they are taken as their text.
+   *
+   * @throws IllegalArgumentException if the text is not such an object
+   */
+  private static void parseJson(String json, Properties settings) {
+    JsonReader reader = new JsonReader(json);
+    reader.expect('{');
+    if (!reader.next('}')) {
+      do {
+        String key = reader.string();
+        reader.expect(':');
+        settings.setProperty(key, reader.value());
+      }
+      while (reader.next(','));
+      reader.expect('}');
+    }
+    reader.end();
+  }
+
+  /**
+   * Reader of the flat JSON objects of the jobs
+   */
+  private static final class JsonReader {
+
+    private final String json;
+
+    private int position;
+
+    private JsonReader(String json) {
+      this.json = json;
+    }
+
+    private void skipWhitespace() {
+      while (this.position < this.json.length()
+          && Character.isWhitespace(this.json.charAt(this.position))) {
+        this.position++;
+      }
+    }
+
+    /**
+     * @return true when the next character is the given one, it is then consumed
+     */
+    private boolean next(char c) {
+      this.skipWhitespace();
+      if (this.position < this.json.length() && this.json.charAt(this.position) == c) {
+        this.position++;
+        return true;
+      }
+      return false;
+    }
+
+    private void expect(char c) {
+      if (!this.next(c)) {
+        throw this.error("'" + c + "' expected");
+      }
+    }
+
+    private void end() {
+      this.skipWhitespace();
+      if (this.position < this.json.length()) {
+        throw this.error("end of the object expected");
+      }
+    }
+
+    private String value() {
+      this.skipWhitespace();
+      if (this.position < this.json.length() && this.json.charAt(this.position) == '"') {
+        return this.string();
+      }
+      int start = this.position;
+      while (this.position < this.json.length()
+          && "+-.eE0123456789truefals".indexOf(this.json.charAt(this.position)) >= 0) {
+        this.position++;
+      }
+      String literal = this.json.substring(start, this.position);
+      if (literal.equals("true") || literal.equals("false")) {
+        return literal;
+      }
+      try {
+        Double.parseDouble(literal);
+        return literal;
+      }
+      catch (NumberFormatException e) {
+        throw this.error("string, number or boolean expected");
+      }
+    }
+
+    private String string() {
+      this.expect('"');
+      StringBuilder value = new StringBuilder();
+      while (true) {
+        if (this.position >= this.json.length()) {
+          throw this.error("unterminated string");
+        }
+        char c = this.json.charAt(this.position++);
+        if (c == '"') {
+          return value.toString();
+        }
+        if (c != '\\') {
+          value.append(c);
+          continue;
+        }
+        if (this.position >= this.json.length()) {
+          throw this.error("unterminated string");
+        }
+        char escaped = this.json.charAt(this.position++);
+        switch (escaped) {
+          case 'b':
+            value.append('\b');
+            break;
+          case 'f':
+            value.append('\f');
+            break;
+          case 'n':
+            value.append('\n');
+            break;
+          case 'r':
+            value.append('\r');
+            break;
+          case 't':
+            value.append('\t');
+            break;
+          case 'u':
+            String hex = this.json.substring(this.position,
+                Math.min(this.position + 4, this.json.length()));
+            try {
+              value.append((char) Integer.parseInt(hex, 16));
+            }
+            catch (NumberFormatException e) {
+              throw this.error("bad unicode escape");
+            }
+            this.position += 4;
+            break;
+          default:
+            value.append(escaped);
+        }
+      }
+    }
+
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " at " + this.position);
+    }
+  }
+}
@@ -0,0 +1,173 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Counters and timers of the comparison of one file pair. Filled by the thread that compares the
+ * pair, read by {@link RunMetrics} when the run is complete.
+ *
+ * @author tstoyanov
+ */
+public class FileMetrics {
+
+  /**
+   * How the result of a pair was made
+   */
+  public enum Outcome {
+    TEXT, BINARY, XML, IDENTICAL, CACHED, REPLACED, FAILED
+  }
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  private final String fileName;
+
+  private Outcome outcome = Outcome.TEXT;
+
+  private long bytes;
+
+  private int tokens1;
+
+  private int tokens2;
+
+  private int editDistance;
+
+  private long readNanos;
+
+  private long diffNanos;
+
+  private long renderNanos;
+
+  private long totalNanos;
+
+  private long allocatedBytes = -1;
+
+  private long startNanos;
+
+  private long startAllocatedBytes;
+
+  /**
+   * @param fileName - name of the pair in the report
+   */
+  public FileMetrics(String fileName) {
+    this.fileName = fileName;
+  }
+
+  /**
+   * Starts the wall time and the allocation count of the pair.
+   */
+  void start() {
+    this.startAllocatedBytes = allocatedBytes();
+    this.startNanos = System.nanoTime();
+  }
+
+  /**
+   * Stops the wall time and the allocation count of the pair.
+   */
+  void stop() {
+    this.totalNanos = System.nanoTime() - this.startNanos;
+    long allocated = allocatedBytes();
+    if (allocated >= 0 && this.startAllocatedBytes >= 0) {
+      this.allocatedBytes = allocated - this.startAllocatedBytes;
+    }
+  }
+
+  /**
+   * @return bytes allocated by the current thread so far, -1 when the JVM does not count them
+   */
+  private static long allocatedBytes() {
+    if (THREADS instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+      if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1;
+  }
+
+  void setOutcome(Outcome outcome) {
+    this.outcome = outcome;
+  }
+
+  void setBytes(long bytes) {
+    this.bytes = bytes;
+  }
+
+  void setTokens(int tokens1, int tokens2) {
+    this.tokens1 = tokens1;
+    this.tokens2 = tokens2;
+  }
+
+  void setEditDistance(int editDistance) {
+    this.editDistance = editDistance;
+  }
+
+  void addReadNanos(long nanos) {
+    this.readNanos += nanos;
+  }
+
+  void addDiffNanos(long nanos) {
+    this.diffNanos += nanos;
+  }
+
+  void addRenderNanos(long nanos) {
+    this.renderNanos += nanos;
+  }
+
+  public String getFileName() {
+    return this.fileName;
+  }
+
+  public Outcome getOutcome() {
+    return this.outcome;
+  }
+
+  /**
+   * @return size of both files
+   */
+  public long getBytes() {
+    return this.bytes;
+  }
+
+  public int getTokens1() {
+    return this.tokens1;
+  }
+
+  public int getTokens2() {
+    return this.tokens2;
+  }
+
+  public int getEditDistance() {
+    return this.editDistance;
+  }
+
+  /**
+   * @return time spent reading and normalizing the files
+   */
+  public long getReadNanos() {
+    return this.readNanos;
+  }
+
+  /**
+   * @return time spent finding the common words
+   */
+  public long getDiffNanos() {
+    return this.diffNanos;
+  }
+
+  /**
+   * @return time spent writing the differences
+   */
+  public long getRenderNanos() {
+    return this.renderNanos;
+  }
+
+  public long getTotalNanos() {
+    return this.totalNanos;
+  }
+
+  /**
+   * @return bytes allocated while the pair was compared, -1 if unknown
+   */
+  public long getAllocatedBytes() {
+    return this.allocatedBytes;
+  }
+}
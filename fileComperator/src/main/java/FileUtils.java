@@ -1,13 +1,8 @@
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Deque;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;;
+import java.util.Map;
 
 /**
  * Utility class for managing files
@@ -19,37 +14,22 @@ public class FileUtils {
    * method iterate through folders and collect files name
    *
    * @param rootFolder
-   * @return Map contains key: file name, value: file path - to all file in folders and sub-folders
+   * @return Map contains key: file path relative to the root folder, value: file path - to all
+   *         file in folders and sub-folders
+   * @throws IOException
    */
-  public static Map<String, Path> getAllFilePathsFrom(File rootFolder) {
-    List<String> files = new ArrayList<>();
+  public static Map<String, Path> getAllFilePathsFrom(File rootFolder) throws IOException {
     Map<String, Path> result = new LinkedHashMap<>();
 
-    Deque<File> directories = new LinkedList<>();
-    String nameRootFolder = rootFolder.getName();
-    directories.addFirst(rootFolder);
-
-    StringBuilder sb = new StringBuilder();
-    while (directories.size() != 0) {
-      File file = directories.removeFirst();
-
-      if (file.isDirectory()) {
-        directories.addAll(Arrays.asList(file.listFiles()));
-      }
-      else {
-        Path p = Paths.get(file.getAbsolutePath());
-        String currentFolderName = String.valueOf(p.getName(p.getNameCount() - 2));
-
-        if (!nameRootFolder.equals(currentFolderName)) {
-          String key = currentFolderName + "/" + file.getName();
-          result.putIfAbsent(key, p);
-        }
-        else {
-          result.putIfAbsent(file.getName(), p);
-        }
-
+    DirectoryScanner scanner = new DirectoryScanner();
+    try {
+      for (Map.Entry<String, ScannedFile> entry : scanner.scan(rootFolder.toPath()).entrySet()) {
+        result.put(entry.getKey(), entry.getValue().getPath());
       }
     }
+    finally {
+      scanner.shutdown();
+    }
 
     return result;
   }
@@ -0,0 +1,178 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Two level diff. Every line (the words up to and including a line break) is hashed to a line id
+ * and the line ids are diffed first. Words are only diffed inside the hunks of changed lines, so a
+ * file with a few changed lines costs a few small word diffs instead of one over the whole file.
+ *
+ * @author tstoyanov
+ */
+public class HierarchicalDiff {
+
+  private HierarchicalDiff() {
+  }
+
+  /**
+   * @param text1Words
+   * @param text2Words
+   * @param dictionary - dictionary the word ids come from
+   * @param algorithm - algorithm the lines and the words of the changed lines are diffed with
+   * @return edit script of the words
+   */
+  public static EditScript diff(int[] text1Words, int[] text2Words, TokenDictionary dictionary,
+      DiffAlgorithm algorithm) {
+    return diff(text1Words, text2Words, dictionary, algorithm, DiffBudget.UNLIMITED.start(), true);
+  }
+
+  /**
+   * @param text1Words
+   * @param text2Words
+   * @param dictionary - dictionary the word ids come from
+   * @param algorithm - algorithm the lines and the words of the changed lines are diffed with
+   * @param meter
+   * @return edit script of the words
+   * @throws DiffBudget.ExceededException if the diff goes over the budget of the meter
+   */
+  public static EditScript diff(int[] text1Words, int[] text2Words, TokenDictionary dictionary,
+      DiffAlgorithm algorithm, DiffBudget.Meter meter) {
+    return diff(text1Words, text2Words, dictionary, algorithm, meter, true);
+  }
+
+  /**
+   * Diffs the lines only, every word of a changed line is deleted or inserted.
+   *
+   * @param text1Words
+   * @param text2Words
+   * @param dictionary - dictionary the word ids come from
+   * @param algorithm - algorithm the lines are diffed with
+   * @param meter - meter of the line diff, edits are counted in lines
+   * @return edit script of the words
+   * @throws DiffBudget.ExceededException if the diff goes over the budget of the meter
+   */
+  public static EditScript diffLines(int[] text1Words, int[] text2Words,
+      TokenDictionary dictionary, DiffAlgorithm algorithm, DiffBudget.Meter meter) {
+    return diff(text1Words, text2Words, dictionary, algorithm, meter, false);
+  }
+
+  private static EditScript diff(int[] text1Words, int[] text2Words, TokenDictionary dictionary,
+      DiffAlgorithm algorithm, DiffBudget.Meter meter, boolean diffChangedLines) {
+    Map<Line, Integer> lineIds = new HashMap<>();
+    int[] text1LineStarts = lineStarts(text1Words, dictionary);
+    int[] text2LineStarts = lineStarts(text2Words, dictionary);
+    int[] text1Lines = lineIds(text1Words, text1LineStarts, lineIds);
+    int[] text2Lines = lineIds(text2Words, text2LineStarts, lineIds);
+
+    EditScript lines = algorithm.diff(text1Lines, text2Lines, meter);
+    if (!diffChangedLines) {
+      meter.check(lines.getEditDistance());
+    }
+    EditScript result = new EditScript(text1Words.length, text2Words.length);
+
+    int i = 0, j = 0;
+    while (i < text1Lines.length || j < text2Lines.length) {
+      int hunk1Start = i;
+      int hunk2Start = j;
+      while (i < text1Lines.length && lines.isDeleted(i)) {
+        i++;
+      }
+      while (j < text2Lines.length && lines.isInserted(j)) {
+        j++;
+      }
+      if ((i > hunk1Start || j > hunk2Start) && diffChangedLines) {
+        algorithm.diff(text1Words, text1LineStarts[hunk1Start], text1LineStarts[i], text2Words,
+            text2LineStarts[hunk2Start], text2LineStarts[j], result, meter);
+      }
+      else if (i > hunk1Start || j > hunk2Start) {
+        result.markDeleted(text1LineStarts[hunk1Start], text1LineStarts[i]);
+        result.markInserted(text2LineStarts[hunk2Start], text2LineStarts[j]);
+      }
+      if (i < text1Lines.length && j < text2Lines.length) {
+        // equal lines, all their words are kept
+        i++;
+        j++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return start position of every line followed by the length of the text
+   */
+  private static int[] lineStarts(int[] textWords, TokenDictionary dictionary) {
+    int[] starts = new int[64];
+    int count = 0;
+    for (int i = 0; i < textWords.length; i++) {
+      if (i == 0 || dictionary.isLineBreak(textWords[i - 1])) {
+        if (count == starts.length - 1) {
+          starts = Arrays.copyOf(starts, count * 2);
+        }
+        starts[count++] = i;
+      }
+    }
+    starts[count++] = textWords.length;
+    return Arrays.copyOf(starts, count);
+  }
+
+  private static int[] lineIds(int[] textWords, int[] lineStarts, Map<Line, Integer> lineIds) {
+    int[] result = new int[lineStarts.length - 1];
+    for (int l = 0; l < result.length; l++) {
+      Line line = new Line(textWords, lineStarts[l], lineStarts[l + 1]);
+      Integer id = lineIds.get(line);
+      if (id == null) {
+        id = lineIds.size();
+        lineIds.put(line, id);
+      }
+      result[l] = id;
+    }
+    return result;
+  }
+
+  /**
+   * Key of a line, compares the word ids of two ranges
+   */
+  private static class Line {
+
+    private final int[] words;
+
+    private final int from;
+
+    private final int to;
+
+    private final int hash;
+
+    private Line(int[] words, int from, int to) {
+      this.words = words;
+      this.from = from;
+      this.to = to;
+      int h = 1;
+      for (int i = from; i < to; i++) {
+        h = 31 * h + words[i];
+      }
+      this.hash = h;
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Line)) {
+        return false;
+      }
+      Line other = (Line) obj;
+      if (other.hash != this.hash || other.to - other.from != this.to - this.from) {
+        return false;
+      }
+      for (int i = 0; i < this.to - this.from; i++) {
+        if (this.words[this.from + i] != other.words[other.from + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,206 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Histogram diff, a variant of patience diff. For a region of both sequences the occurrences of
+ * every word of the first sequence are counted, and the longest common run that contains the
+ * rarest words is taken as an anchor. The regions before and after the anchor are solved the same
+ * way, so one large problem is split into many small ones and moved blocks stay together instead
+ * of being matched word by word. Regions without a common word that occurs at most
+ * {@value #MAX_CHAIN_LENGTH} times fall back to {@link MyersDiff}.
+ * <p>
+ * The words of the diffed part are first numbered from 0 in a hash table, so the tables of one
+ * call are sized by the part and not by the dictionary or the whole sequences. This keeps the many
+ * small calls of {@link HierarchicalDiff}, one per changed hunk, cheap.
+ *
+ * @author tstoyanov
+ */
+public class HistogramDiff {
+
+  private static final int MAX_CHAIN_LENGTH = 64;
+
+  private final int[] text1Words;
+
+  private final int[] text2Words;
+
+  private final EditScript script;
+
+  private final DiffBudget.Meter meter;
+
+  private final int text1From;
+
+  private final int text2From;
+
+  /**
+   * Local number of the word at each position of the first part
+   */
+  private final int[] locals1;
+
+  /**
+   * Local number of the word at each position of the second part, -1 for words not in the first
+   */
+  private final int[] locals2;
+
+  /**
+   * Occurrences in the current region of the first sequence, by local number
+   */
+  private final int[] counts;
+
+  /**
+   * Last occurrence in the current region of the first sequence, by local number
+   */
+  private final int[] heads;
+
+  /**
+   * Region the counts and heads of a local number belong to, stale entries are ignored
+   */
+  private final int[] stamps;
+
+  /**
+   * Previous occurrence of the same word, by position in the first part
+   */
+  private final int[] previous;
+
+  private int stamp;
+
+  private HistogramDiff(int[] text1Words, int text1From, int text1To, int[] text2Words,
+      int text2From, int text2To, EditScript script, DiffBudget.Meter meter) {
+    this.text1Words = text1Words;
+    this.text2Words = text2Words;
+    this.text1From = text1From;
+    this.text2From = text2From;
+    this.script = script;
+    this.meter = meter;
+
+    int length1 = text1To - text1From;
+    int capacity = Integer.highestOneBit(Math.max(length1, 1)) * 4;
+    int[] keys = new int[capacity];
+    int[] values = new int[capacity];
+    Arrays.fill(values, -1);
+    int size = 0;
+    this.locals1 = new int[length1];
+    for (int i = 0; i < length1; i++) {
+      int slot = find(keys, values, text1Words[text1From + i]);
+      if (values[slot] < 0) {
+        keys[slot] = text1Words[text1From + i];
+        values[slot] = size++;
+      }
+      this.locals1[i] = values[slot];
+    }
+    this.locals2 = new int[text2To - text2From];
+    for (int j = 0; j < this.locals2.length; j++) {
+      this.locals2[j] = values[find(keys, values, text2Words[text2From + j])];
+    }
+    this.counts = new int[size];
+    this.heads = new int[size];
+    this.stamps = new int[size];
+    this.previous = new int[length1];
+  }
+
+  /**
+   * @return slot of the word in the open addressing table, or the free slot it would go to
+   */
+  private static int find(int[] keys, int[] values, int word) {
+    int mask = keys.length - 1;
+    int slot = (word * 0x9E3779B9) >>> 1 & mask;
+    while (values[slot] >= 0 && keys[slot] != word) {
+      slot = slot + 1 & mask;
+    }
+    return slot;
+  }
+
+  /**
+   * Diffs a part of both sequences into the given script, see
+   * {@link MyersDiff#diff(int[], int, int, int[], int, int, EditScript, DiffBudget.Meter)}.
+   */
+  public static void diff(int[] text1Words, int text1From, int text1To, int[] text2Words,
+      int text2From, int text2To, EditScript script, DiffBudget.Meter meter) {
+    HistogramDiff diff = new HistogramDiff(text1Words, text1From, text1To, text2Words, text2From,
+        text2To, script, meter);
+    Deque<int[]> regions = new ArrayDeque<>();
+    regions.push(new int[] { text1From, text1To, text2From, text2To });
+    while (!regions.isEmpty()) {
+      meter.check(0);
+      int[] region = regions.pop();
+      diff.diffRegion(region[0], region[1], region[2], region[3], regions);
+    }
+  }
+
+  private void diffRegion(int aFrom, int aTo, int bFrom, int bTo, Deque<int[]> regions) {
+    int[] a = this.text1Words;
+    int[] b = this.text2Words;
+    while (aFrom < aTo && bFrom < bTo && a[aFrom] == b[bFrom]) {
+      aFrom++;
+      bFrom++;
+    }
+    while (aTo > aFrom && bTo > bFrom && a[aTo - 1] == b[bTo - 1]) {
+      aTo--;
+      bTo--;
+    }
+    if (aFrom == aTo) {
+      this.script.markInserted(bFrom, bTo);
+      return;
+    }
+    if (bFrom == bTo) {
+      this.script.markDeleted(aFrom, aTo);
+      return;
+    }
+
+    int[] locals1 = this.locals1;
+    int[] counts = this.counts;
+    int base1 = this.text1From;
+    this.stamp++;
+    for (int i = aFrom; i < aTo; i++) {
+      int word = locals1[i - base1];
+      if (this.stamps[word] != this.stamp) {
+        this.stamps[word] = this.stamp;
+        counts[word] = 0;
+        this.heads[word] = -1;
+      }
+      counts[word]++;
+      this.previous[i - base1] = this.heads[word];
+      this.heads[word] = i;
+    }
+
+    int bestLength = 0;
+    int bestCount = MAX_CHAIN_LENGTH + 1;
+    int bestA = 0, bestB = 0;
+    for (int j = bFrom; j < bTo;) {
+      int word = this.locals2[j - this.text2From];
+      int nextJ = j + 1;
+      if (word >= 0 && this.stamps[word] == this.stamp && counts[word] <= bestCount) {
+        for (int i = this.heads[word]; i >= 0; i = this.previous[i - base1]) {
+          int aStart = i, bStart = j, aEnd = i + 1, bEnd = j + 1;
+          int lowCount = counts[word];
+          while (aStart > aFrom && bStart > bFrom && a[aStart - 1] == b[bStart - 1]) {
+            aStart--;
+            bStart--;
+            lowCount = Math.min(lowCount, counts[locals1[aStart - base1]]);
+          }
+          while (aEnd < aTo && bEnd < bTo && a[aEnd] == b[bEnd]) {
+            lowCount = Math.min(lowCount, counts[locals1[aEnd - base1]]);
+            aEnd++;
+            bEnd++;
+          }
+          nextJ = Math.max(nextJ, bEnd);
+          if (lowCount < bestCount || lowCount == bestCount && aEnd - aStart > bestLength) {
+            bestCount = lowCount;
+            bestLength = aEnd - aStart;
+            bestA = aStart;
+            bestB = bStart;
+          }
+        }
+      }
+      j = nextJ;
+    }
+
+    if (bestLength == 0) {
+      MyersDiff.diff(a, aFrom, aTo, b, bFrom, bTo, this.script, this.meter);
+    }
+    else {
+      regions.push(new int[] { bestA + bestLength, aTo, bestB + bestLength, bTo });
+      regions.push(new int[] { aFrom, bestA, bFrom, bestB });
+    }
+  }
+}
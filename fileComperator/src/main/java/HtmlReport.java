@@ -0,0 +1,581 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * HTML report of a run split in small pages, so a browser only loads what is looked at. The
+ * <code>index.html</code> page has the totals and links to the pages of the file list, every file
+ * list page has one row per file with its status and changed line counts. A changed file has a
+ * page of its own with the changed lines grouped in hunks. The hunks are collapsed and the lines
+ * of a hunk are loaded from a script of their own when it is expanded; unchanged lines between the
+ * hunks are only counted.
+ * <p>
+ * The pages are written while the run is in progress: the pages of the files by the threads that
+ * compare them, from the edit script of the comparison, the file list in the order the files are
+ * reserved. The lines of a page are the lines the files are compared by, see
+ * {@link NormalizingLexer}; a line with a changed word is shown as deleted from the old version
+ * and inserted in the new one.
+ *
+ * @author tstoyanov
+ */
+public class HtmlReport implements Closeable {
+
+  /**
+   * Rows of one file list page
+   */
+  private static final int PAGE_SIZE = 500;
+
+  /**
+   * Unchanged lines shown before and after the changed lines of a hunk
+   */
+  private static final int CONTEXT_LINES = 3;
+
+  private static final String FILES_FOLDER = "files";
+
+  private static final String STYLE = "<style>body{font-family:sans-serif}"
+      + "table{border-collapse:collapse}td{padding:0 6px;vertical-align:top}"
+      + ".code td{font-family:monospace;white-space:pre-wrap}"
+      + ".d{background-color:#CB6D6D}.i{background-color:#99FFCC}</style>";
+
+  private final Path folder;
+
+  /**
+   * Rows of the completed files that wait for the files reserved before them
+   */
+  private final Map<Integer, String> completedRows = new HashMap<>();
+
+  private final Map<String, Integer> statusCounts = new TreeMap<>();
+
+  private int reservedSlots;
+
+  private int writtenRows;
+
+  private int pageCount;
+
+  private Writer page;
+
+  /**
+   * @param folder - folder to write the pages to, created if it does not exist
+   * @throws IOException
+   */
+  public HtmlReport(Path folder) throws IOException {
+    this.folder = Files.createDirectories(folder);
+    Files.createDirectories(folder.resolve(FILES_FOLDER));
+  }
+
+  /**
+   * Reserves the row of the next file of the report. Every reserved row has to be completed with
+   * {@link #addPair} or {@link #addFile}.
+   *
+   * @return slot of the row
+   */
+  public synchronized int reserve() {
+    return this.reservedSlots++;
+  }
+
+  /**
+   * @param slot - reserved slot
+   * @param fileName - name of the pair in the report
+   * @return page of a compared pair, written by the comparator if the pair has changed lines
+   */
+  public FilePage newPage(int slot, String fileName) {
+    return new FilePage(slot, fileName);
+  }
+
+  /**
+   * Completes the row of a compared pair. Pairs that are not compared by their words, like
+   * binary or XML pairs, have no page and keep the status of how they were compared. Only pairs
+   * without differences are taken from the report cache when there is an HTML report.
+   *
+   * @param filePage - page of the pair
+   * @param outcome - how the pair was compared
+   * @param different - false when no difference was found
+   */
+  public void addPair(FilePage filePage, FileMetrics.Outcome outcome, boolean different) {
+    String status;
+    String counts = "<td></td><td></td><td></td>";
+    String name = escape(filePage.fileName);
+    switch (outcome) {
+      case IDENTICAL:
+        status = "same";
+        break;
+      case BINARY:
+        status = different ? "binary" : "same";
+        break;
+      case REPLACED:
+        status = "replaced";
+        break;
+      case FAILED:
+        status = "failed";
+        break;
+      case CACHED:
+        status = different ? "cached" : "same";
+        break;
+      case XML:
+        status = different ? "changed" : "same";
+        break;
+      default:
+        if (filePage.failed) {
+          status = "failed";
+        }
+        else if (!different) {
+          status = "same";
+        }
+        else if (filePage.hunks == null || filePage.hunks.list.isEmpty()) {
+          status = "changed";
+        }
+        else {
+          status = "changed";
+          Hunks hunks = filePage.hunks;
+          counts = "<td>" + hunks.deleted + "</td><td>" + hunks.inserted + "</td><td>"
+              + hunks.list.size() + "</td>";
+          name = "<a href=\"" + FILES_FOLDER + "/" + filePage.slot + ".html\">" + name + "</a>";
+        }
+    }
+    this.complete(filePage.slot, status, "<tr><td>" + name + "</td><td>" + status + "</td>"
+        + counts + "</tr>");
+  }
+
+  /**
+   * Completes the row of a file without a page, like a missing or an added file.
+   *
+   * @param slot - reserved slot
+   * @param fileName
+   * @param status
+   */
+  public void addFile(int slot, String fileName, String status) {
+    this.complete(slot, status, "<tr><td>" + escape(fileName) + "</td><td>" + status
+        + "</td><td></td><td></td><td></td></tr>");
+  }
+
+  /**
+   * Writes the rows that are complete up to the first one that is not.
+   */
+  private synchronized void complete(int slot, String status, String row) {
+    this.statusCounts.merge(status, 1, Integer::sum);
+    this.completedRows.put(slot, row);
+    try {
+      String next;
+      while ((next = this.completedRows.remove(this.writtenRows)) != null) {
+        if (this.writtenRows % PAGE_SIZE == 0) {
+          this.nextPage();
+        }
+        this.page.write(next);
+        this.page.write('\n');
+        this.writtenRows++;
+      }
+    }
+    catch (IOException e) {
+      throw new ReportException(e);
+    }
+  }
+
+  private void nextPage() throws IOException {
+    if (this.page != null) {
+      this.page.write("</table><p><a href=\"" + pageName(this.pageCount + 1)
+          + "\">Next</a></p></body></html>");
+      this.page.close();
+    }
+    this.pageCount++;
+    this.page = Files.newBufferedWriter(this.folder.resolve(pageName(this.pageCount)),
+        StandardCharsets.UTF_8);
+    this.page.write("<html><head><meta charset=\"utf-8\">" + STYLE + "</head><body>"
+        + "<p><a href=\"index.html\">Summary</a>");
+    if (this.pageCount > 1) {
+      this.page.write(" <a href=\"" + pageName(this.pageCount - 1) + "\">Previous</a>");
+    }
+    this.page.write("</p><table><tr><th>File</th><th>Status</th><th>Deleted lines</th>"
+        + "<th>Inserted lines</th><th>Hunks</th></tr>\n");
+  }
+
+  private static String pageName(int page) {
+    return "files-" + page + ".html";
+  }
+
+  private static void writeHunk(Path output, int k, Hunk hunk, EditScript script, Lines lines1,
+      Lines lines2) throws IOException {
+    StringBuilder table = new StringBuilder("<table class=\"code\">");
+    int i = hunk.from1;
+    int j = hunk.from2;
+    while (i < hunk.to1 || j < hunk.to2) {
+      if (i < hunk.to1 && script.isDeleted(i)) {
+        appendLine(table, "d", String.valueOf(i + 1), "", lines1.html(i++));
+      }
+      else if (j < hunk.to2 && script.isInserted(j)) {
+        appendLine(table, "i", "", String.valueOf(j + 1), lines2.html(j++));
+      }
+      else {
+        appendLine(table, "", String.valueOf(i + 1), String.valueOf(j + 1), lines1.html(i));
+        i++;
+        j++;
+      }
+    }
+    table.append("</table>");
+    try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+      writer.write("hunk(" + k + ", " + jsString(table.toString()) + ");");
+    }
+  }
+
+  private static void appendLine(StringBuilder table, String style, String line1, String line2,
+      String html) {
+    table.append("<tr class=\"").append(style).append("\"><td>").append(line1)
+        .append("</td><td>").append(line2).append("</td><td>").append(html)
+        .append("</td></tr>");
+  }
+
+  /**
+   * Writes the last file list page and the summary page.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (this.page == null) {
+      this.nextPage();
+    }
+    this.page.write("</table></body></html>");
+    this.page.close();
+
+    try (Writer writer = Files.newBufferedWriter(this.folder.resolve("index.html"),
+        StandardCharsets.UTF_8)) {
+      writer.write("<html><head><meta charset=\"utf-8\">" + STYLE + "</head><body>"
+          + "<h3>Summary</h3><table><tr><th>Status</th><th>Files</th></tr>");
+      for (Map.Entry<String, Integer> count : this.statusCounts.entrySet()) {
+        writer.write("<tr><td>" + count.getKey() + "</td><td>" + count.getValue() + "</td></tr>");
+      }
+      writer.write("</table><p>Files:");
+      for (int i = 1; i <= this.pageCount; i++) {
+        writer.write(" <a href=\"" + pageName(i) + "\">" + ((i - 1) * PAGE_SIZE + 1) + "-"
+            + Math.min(i * PAGE_SIZE, this.writtenRows) + "</a>");
+      }
+      writer.write("</p></body></html>");
+    }
+  }
+
+  private static String escape(String text) {
+    return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+        .replace("\"", "&quot;");
+  }
+
+  private static String jsString(String text) {
+    StringBuilder js = new StringBuilder("\"");
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '"' || c == '\\') {
+        js.append('\\').append(c);
+      }
+      else if (c == '/' && i > 0 && text.charAt(i - 1) == '<') {
+        // keeps "</script>" in a line from ending a script
+        js.append("\\/");
+      }
+      else if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+        js.append(String.format("\\u%04x", (int) c));
+      }
+      else {
+        js.append(c);
+      }
+    }
+    return js.append('"').toString();
+  }
+
+  /**
+   * Page of one compared pair. The comparator writes it from the edit script of the words, so the
+   * files are neither read nor diffed again for the report.
+   */
+  public final class FilePage {
+
+    private final int slot;
+
+    private final String fileName;
+
+    private Hunks hunks;
+
+    private boolean failed;
+
+    private FilePage(int slot, String fileName) {
+      this.slot = slot;
+      this.fileName = fileName;
+    }
+
+    /**
+     * Writes the page and the scripts of the hunks if there are changed lines. A failure is
+     * reported in the row of the pair, not to the comparator.
+     *
+     * @param words1 - word ids of the old version
+     * @param words2 - word ids of the new version
+     * @param script - edit script of the words
+     * @param dictionary - dictionary of the word ids
+     */
+    public void write(int[] words1, int[] words2, EditScript script, TokenDictionary dictionary) {
+      try {
+        int[] starts1 = lineStarts(words1, dictionary);
+        int[] starts2 = lineStarts(words2, dictionary);
+        EditScript lines = lineScript(words1, words2, script, dictionary, starts1.length - 1,
+            starts2.length - 1);
+        this.hunks = new Hunks(lines, starts1.length - 1, starts2.length - 1);
+        if (!this.hunks.list.isEmpty()) {
+          this.writePage(lines, new Lines(words1, starts1, dictionary),
+              new Lines(words2, starts2, dictionary));
+        }
+      }
+      catch (IOException | RuntimeException e) {
+        this.failed = true;
+      }
+    }
+
+    private void writePage(EditScript script, Lines lines1, Lines lines2) throws IOException {
+      Path files = HtmlReport.this.folder.resolve(FILES_FOLDER);
+      try (Writer writer = Files.newBufferedWriter(files.resolve(this.slot + ".html"),
+          StandardCharsets.UTF_8)) {
+        writer.write("<html><head><meta charset=\"utf-8\">" + STYLE + "<script>"
+            + "function hunk(k, html) { document.getElementById('h' + k).innerHTML = html; }"
+            + "function expand(d, k) { if (d.open && !d.loaded) { d.loaded = true;"
+            + " var s = document.createElement('script'); s.src = '" + this.slot
+            + "-' + k + '.js'; document.body.appendChild(s); } }</script></head><body><h3>"
+            + escape(this.fileName) + "</h3>\n");
+        int shownUpTo = 0;
+        for (int k = 0; k < this.hunks.list.size(); k++) {
+          Hunk hunk = this.hunks.list.get(k);
+          if (hunk.from1 > shownUpTo) {
+            writer.write("<p>" + (hunk.from1 - shownUpTo) + " unchanged lines</p>\n");
+          }
+          shownUpTo = hunk.to1;
+          writer.write(String.format("<details ontoggle=\"expand(this, %d)\"><summary>Lines"
+              + " %d-%d of old version, %d-%d of new version: %d deleted, %d inserted</summary>"
+              + "<div id=\"h%d\">Loading...</div></details>%n", k, hunk.from1 + 1, hunk.to1,
+              hunk.from2 + 1, hunk.to2, hunk.deleted, hunk.inserted, k));
+          writeHunk(files.resolve(this.slot + "-" + k + ".js"), k, hunk, script, lines1, lines2);
+        }
+        if (lines1.count() > shownUpTo) {
+          writer.write("<p>" + (lines1.count() - shownUpTo) + " unchanged lines</p>\n");
+        }
+        writer.write("</body></html>");
+      }
+    }
+  }
+
+  /**
+   * Index of the first word of every line, followed by the number of words. The last line has no
+   * line break if the text does not end with one.
+   */
+  private static int[] lineStarts(int[] words, TokenDictionary dictionary) {
+    int count = 0;
+    for (int i = 0; i < words.length; i++) {
+      if (dictionary.isLineBreak(words[i]) || i == words.length - 1) {
+        count++;
+      }
+    }
+    int[] starts = new int[count + 1];
+    int line = 1;
+    for (int i = 0; i < words.length - 1; i++) {
+      if (dictionary.isLineBreak(words[i])) {
+        starts[line++] = i + 1;
+      }
+    }
+    starts[count] = words.length;
+    return starts;
+  }
+
+  /**
+   * Maps an edit script of words to one of lines. The words are split in segments at the points
+   * where both versions are at the start of a line; every line of a segment with an edit is
+   * deleted or inserted, a segment without an edit is one line kept in both versions.
+   */
+  private static EditScript lineScript(int[] words1, int[] words2, EditScript script,
+      TokenDictionary dictionary, int length1, int length2) {
+    EditScript lines = new EditScript(length1, length2);
+    int i = 0;
+    int j = 0;
+    int line1 = 0;
+    int line2 = 0;
+    int segment1 = 0;
+    int segment2 = 0;
+    boolean lineStart1 = true;
+    boolean lineStart2 = true;
+    boolean edited = false;
+    while (i < words1.length || j < words2.length) {
+      if (i < words1.length && script.isDeleted(i)) {
+        lineStart1 = dictionary.isLineBreak(words1[i++]);
+        line1 += lineStart1 ? 1 : 0;
+        edited = true;
+      }
+      else if (j < words2.length && script.isInserted(j)) {
+        lineStart2 = dictionary.isLineBreak(words2[j++]);
+        line2 += lineStart2 ? 1 : 0;
+        edited = true;
+      }
+      else {
+        // a kept word is the same in both versions
+        lineStart1 = dictionary.isLineBreak(words1[i++]);
+        lineStart2 = lineStart1;
+        line1 += lineStart1 ? 1 : 0;
+        line2 += lineStart2 ? 1 : 0;
+        j++;
+      }
+      if (lineStart1 && lineStart2) {
+        if (edited) {
+          lines.markDeleted(segment1, line1);
+          lines.markInserted(segment2, line2);
+        }
+        segment1 = line1;
+        segment2 = line2;
+        edited = false;
+      }
+    }
+    if (edited) {
+      lines.markDeleted(segment1, length1);
+      lines.markInserted(segment2, length2);
+    }
+    return lines;
+  }
+
+  /**
+   * Failure to write a file list page
+   */
+  public static class ReportException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private ReportException(IOException cause) {
+      super(cause);
+    }
+  }
+
+  /**
+   * Lines of one version, rendered from the words only when a hunk shows them
+   */
+  private static final class Lines {
+
+    private final int[] words;
+
+    private final int[] starts;
+
+    private final TokenDictionary dictionary;
+
+    private Lines(int[] words, int[] starts, TokenDictionary dictionary) {
+      this.words = words;
+      this.starts = starts;
+      this.dictionary = dictionary;
+    }
+
+    private int count() {
+      return this.starts.length - 1;
+    }
+
+    /**
+     * @return the words of the line separated by spaces, without the line break. The words
+     *         already have '&lt;' and '&gt;' escaped, the rest of the escaping is done here.
+     */
+    private String html(int line) {
+      StringBuilder html = new StringBuilder();
+      for (int i = this.starts[line]; i < this.starts[line + 1]; i++) {
+        String word = this.dictionary.getWord(this.words[i]);
+        if (this.dictionary.isLineBreak(this.words[i])) {
+          word = word.substring(0, word.length() - "<br>".length());
+        }
+        if (html.length() > 0 && !word.isEmpty()) {
+          html.append(' ');
+        }
+        for (int c = 0; c < word.length(); c++) {
+          char ch = word.charAt(c);
+          if (ch == '&' && !word.startsWith("&lt;", c) && !word.startsWith("&gt;", c)) {
+            html.append("&amp;");
+          }
+          else if (ch == '"') {
+            html.append("&quot;");
+          }
+          else {
+            html.append(ch);
+          }
+        }
+      }
+      return html.toString();
+    }
+  }
+
+  /**
+   * Changed lines of a file grouped with their context
+   */
+  private static final class Hunks {
+
+    private final List<Hunk> list = new ArrayList<>();
+
+    private int deleted;
+
+    private int inserted;
+
+    private Hunks(EditScript script, int length1, int length2) {
+      int i = 0;
+      int j = 0;
+      Hunk hunk = null;
+      // position after the last changed line of the current hunk, in both versions
+      int last1 = 0;
+      int last2 = 0;
+      while (i < length1 || j < length2) {
+        boolean deletedLine = i < length1 && script.isDeleted(i);
+        boolean insertedLine = !deletedLine && j < length2 && script.isInserted(j);
+        if (!deletedLine && !insertedLine) {
+          i++;
+          j++;
+          continue;
+        }
+        if (hunk == null || i - last1 > 2 * CONTEXT_LINES) {
+          if (hunk != null) {
+            hunk.close(last1, last2, length1, length2);
+          }
+          hunk = new Hunk(Math.max(0, i - CONTEXT_LINES), Math.max(0, j - CONTEXT_LINES));
+          this.list.add(hunk);
+        }
+        if (deletedLine) {
+          hunk.deleted++;
+          this.deleted++;
+          i++;
+        }
+        else {
+          hunk.inserted++;
+          this.inserted++;
+          j++;
+        }
+        last1 = i;
+        last2 = j;
+      }
+      if (hunk != null) {
+        hunk.close(last1, last2, length1, length2);
+      }
+    }
+  }
+
+  /**
+   * Lines [from, to) of both versions shown together
+   */
+  private static final class Hunk {
+
+    private final int from1;
+
+    private final int from2;
+
+    private int to1;
+
+    private int to2;
+
+    private int deleted;
+
+    private int inserted;
+
+    private Hunk(int from1, int from2) {
+      this.from1 = from1;
+      this.from2 = from2;
+    }
+
+    private void close(int last1, int last2, int length1, int length2) {
+      this.to1 = Math.min(length1, last1 + CONTEXT_LINES);
+      this.to2 = Math.min(length2, last2 + CONTEXT_LINES);
+    }
+  }
+}
@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * MinHash sketch of the normalized content of a file. The content is cut into shingles of
+ * {@value #SHINGLE_WORDS} consecutive words and for each of {@value #SIZE} hash functions the
+ * smallest shingle hash is kept. The share of equal positions in two sketches estimates the
+ * Jaccard similarity of the shingle sets, so files are compared by their sketches only.
+ *
+ * @author tstoyanov
+ */
+public class MinHashSketch {
+
+  public static final int SIZE = 64;
+
+  private static final int SHINGLE_WORDS = 3;
+
+  private static final long[] SEEDS = new long[SIZE];
+
+  static {
+    long seed = 0x2545F4914F6CDD1DL;
+    for (int i = 0; i < SIZE; i++) {
+      seed += 0x9E3779B97F4A7C15L;
+      SEEDS[i] = mix(seed);
+    }
+  }
+
+  private final long[] minHashes;
+
+  private MinHashSketch(long[] minHashes) {
+    this.minHashes = minHashes;
+  }
+
+  /**
+   * @param file
+   * @return sketch of the normalized file content
+   * @throws IOException
+   */
+  public static MinHashSketch of(Path file) throws IOException {
+    TokenDictionary dictionary = new TokenDictionary();
+    int[] words = ChunkedFileReader.tokenize(file, dictionary, false);
+
+    long[] wordHashes = new long[dictionary.size()];
+    for (int id = 0; id < wordHashes.length; id++) {
+      wordHashes[id] = mix(dictionary.getWord(id).hashCode());
+    }
+
+    long[] minHashes = new long[SIZE];
+    Arrays.fill(minHashes, Long.MAX_VALUE);
+    int shingles = Math.max(1, words.length - SHINGLE_WORDS + 1);
+    for (int i = 0; i < shingles; i++) {
+      long shingle = 0;
+      for (int w = i; w < Math.min(i + SHINGLE_WORDS, words.length); w++) {
+        shingle = shingle * 31 + wordHashes[words[w]];
+      }
+      for (int h = 0; h < SIZE; h++) {
+        long hash = mix(shingle ^ SEEDS[h]);
+        if (hash < minHashes[h]) {
+          minHashes[h] = hash;
+        }
+      }
+    }
+    return new MinHashSketch(minHashes);
+  }
+
+  /**
+   * @param other
+   * @return estimated Jaccard similarity of the two files, between 0 and 1
+   */
+  public double similarity(MinHashSketch other) {
+    int equal = 0;
+    for (int h = 0; h < SIZE; h++) {
+      if (this.minHashes[h] == other.minHashes[h]) {
+        equal++;
+      }
+    }
+    return (double) equal / SIZE;
+  }
+
+  /**
+   * @param band
+   * @param rows - number of hash functions per band
+   * @return hash of the given band of the sketch, equal bands give equal hashes
+   */
+  public long bandHash(int band, int rows) {
+    long hash = band;
+    for (int h = band * rows; h < (band + 1) * rows; h++) {
+      hash = mix(hash * 31 + this.minHashes[h]);
+    }
+    return hash;
+  }
+
+  private static long mix(long value) {
+    long h = value * 0x9E3779B97F4A7C15L;
+    h ^= h >>> 32;
+    h *= 0xD6E8FEB86659FD93L;
+    return h ^ (h >>> 32);
+  }
+}
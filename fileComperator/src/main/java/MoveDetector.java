@@ -0,0 +1,223 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Pairs the files left over after matching by path, so that a moved or renamed file is compared
+ * with its old version instead of being reported as missing and added. Files with the same size
+ * and digest, or CRC for archive entries, are paired first. The rest are paired by
+ * {@link MinHashSketch} similarity; the sketches are split in bands and only files sharing at
+ * least one band are compared, so most pairs of unrelated files are never looked at.
+ *
+ * @author tstoyanov
+ */
+public class MoveDetector {
+
+  private static final int BANDS = 16;
+
+  private static final int ROWS = MinHashSketch.SIZE / BANDS;
+
+  /**
+   * Smallest estimated similarity of two files to count as the same file
+   */
+  private static final double MIN_SIMILARITY = 0.5;
+
+  private final DigestCache digestCache;
+
+  private final ExecutorService executor;
+
+  /**
+   * @param digestCache
+   * @param executor - executor the files are sketched on
+   */
+  public MoveDetector(DigestCache digestCache, ExecutorService executor) {
+    this.digestCache = digestCache;
+    this.executor = executor;
+  }
+
+  /**
+   * @param oldFiles - files found only in the old version, by relative path
+   * @param newFiles - files found only in the new version, by relative path
+   * @return relative path in the old version by relative path in the new version, sorted by the
+   *         new path
+   * @throws IOException
+   */
+  public Map<String, String> findMoves(Map<String, ScannedFile> oldFiles,
+      Map<String, ScannedFile> newFiles) throws IOException {
+    Map<String, String> moves = new TreeMap<>();
+    if (oldFiles.isEmpty() || newFiles.isEmpty()) {
+      return moves;
+    }
+    List<ScannedFile> oldLeft = new ArrayList<>(oldFiles.values());
+    List<ScannedFile> newLeft = new ArrayList<>(newFiles.values());
+    this.pairIdentical(oldLeft, newLeft, moves);
+    if (!oldLeft.isEmpty() && !newLeft.isEmpty()) {
+      this.pairSimilar(oldLeft, newLeft, moves);
+    }
+    return moves;
+  }
+
+  /**
+   * Pairs files with the same content, only files whose size occurs on both sides are read.
+   */
+  private void pairIdentical(List<ScannedFile> oldLeft, List<ScannedFile> newLeft,
+      Map<String, String> moves) throws IOException {
+    Set<Long> newSizes = new HashSet<>();
+    for (ScannedFile file : newLeft) {
+      newSizes.add(file.getSize());
+    }
+    Set<Long> oldSizes = new HashSet<>();
+    Map<String, List<ScannedFile>> oldByDigest = new HashMap<>();
+    for (ScannedFile file : oldLeft) {
+      if (newSizes.contains(file.getSize())) {
+        oldSizes.add(file.getSize());
+        oldByDigest.computeIfAbsent(this.contentKey(file), key -> new ArrayList<>()).add(file);
+      }
+    }
+    if (oldByDigest.isEmpty()) {
+      return;
+    }
+
+    Set<ScannedFile> pairedOld = new HashSet<>();
+    List<ScannedFile> unpairedNew = new ArrayList<>();
+    for (ScannedFile file : newLeft) {
+      List<ScannedFile> candidates = null;
+      if (oldSizes.contains(file.getSize())) {
+        candidates = oldByDigest.get(this.contentKey(file));
+      }
+      if (candidates == null || candidates.isEmpty()) {
+        unpairedNew.add(file);
+        continue;
+      }
+      ScannedFile old = candidates.remove(0);
+      pairedOld.add(old);
+      moves.put(file.getRelativePath(), old.getRelativePath());
+    }
+    oldLeft.removeAll(pairedOld);
+    newLeft.clear();
+    newLeft.addAll(unpairedNew);
+  }
+
+  /**
+   * @return the CRC of an archive entry, which needs no inflating, the digest of any other file
+   */
+  private String contentKey(ScannedFile file) throws IOException {
+    if (file.getCrc() != ScannedFile.NO_CRC) {
+      return "crc:" + Long.toHexString(file.getCrc());
+    }
+    return this.digestCache.getDigest(file);
+  }
+
+  /**
+   * Pairs the most similar files first, every file is used in one pair at most.
+   */
+  private void pairSimilar(List<ScannedFile> oldLeft, List<ScannedFile> newLeft,
+      Map<String, String> moves) throws IOException {
+    MinHashSketch[] oldSketches = this.sketch(oldLeft);
+    MinHashSketch[] newSketches = this.sketch(newLeft);
+
+    Map<Long, List<Integer>> buckets = new HashMap<>();
+    for (int o = 0; o < oldSketches.length; o++) {
+      if (oldSketches[o] == null) {
+        continue;
+      }
+      for (int band = 0; band < BANDS; band++) {
+        buckets.computeIfAbsent(oldSketches[o].bandHash(band, ROWS), hash -> new ArrayList<>())
+            .add(o);
+      }
+    }
+
+    List<Candidate> candidates = new ArrayList<>();
+    for (int n = 0; n < newSketches.length; n++) {
+      if (newSketches[n] == null) {
+        continue;
+      }
+      Set<Integer> compared = new HashSet<>();
+      for (int band = 0; band < BANDS; band++) {
+        List<Integer> bucket = buckets.get(newSketches[n].bandHash(band, ROWS));
+        if (bucket == null) {
+          continue;
+        }
+        for (int o : bucket) {
+          if (compared.add(o)) {
+            double similarity = newSketches[n].similarity(oldSketches[o]);
+            if (similarity >= MIN_SIMILARITY) {
+              candidates.add(new Candidate(o, n, similarity));
+            }
+          }
+        }
+      }
+    }
+
+    candidates.sort(Comparator.comparingDouble((Candidate c) -> -c.similarity)
+        .thenComparing(c -> newLeft.get(c.newIndex).getRelativePath())
+        .thenComparing(c -> oldLeft.get(c.oldIndex).getRelativePath()));
+    boolean[] oldPaired = new boolean[oldSketches.length];
+    boolean[] newPaired = new boolean[newSketches.length];
+    for (Candidate candidate : candidates) {
+      if (!oldPaired[candidate.oldIndex] && !newPaired[candidate.newIndex]) {
+        oldPaired[candidate.oldIndex] = true;
+        newPaired[candidate.newIndex] = true;
+        moves.put(newLeft.get(candidate.newIndex).getRelativePath(),
+            oldLeft.get(candidate.oldIndex).getRelativePath());
+      }
+    }
+  }
+
+  /**
+   * @return sketches in the order of the files, null for a file that cannot be read and is left
+   *         unpaired
+   */
+  private MinHashSketch[] sketch(List<ScannedFile> files) throws IOException {
+    List<Future<MinHashSketch>> futures = new ArrayList<>(files.size());
+    for (ScannedFile file : files) {
+      futures.add(this.executor.submit(() -> {
+        try {
+          return MinHashSketch.of(file.getPath());
+        }
+        catch (IOException e) {
+          return null;
+        }
+      }));
+    }
+    MinHashSketch[] sketches = new MinHashSketch[files.size()];
+    try {
+      for (int i = 0; i < sketches.length; i++) {
+        sketches[i] = futures.get(i).get();
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Sketching interrupted");
+    }
+    catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+    return sketches;
+  }
+
+  private static class Candidate {
+
+    private final int oldIndex;
+
+    private final int newIndex;
+
+    private final double similarity;
+
+    private Candidate(int oldIndex, int newIndex, double similarity) {
+      this.oldIndex = oldIndex;
+      this.newIndex = newIndex;
+      this.similarity = similarity;
+    }
+  }
+}
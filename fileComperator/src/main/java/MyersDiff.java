@@ -0,0 +1,194 @@
+/**
+ * Myers O((N+M)D) difference algorithm with the linear space refinement. The sequences are split
+ * on the middle snake of the edit graph and both halves are solved recursively, so only two
+ * diagonal vectors of N+M+3 ints are needed no matter how large the input is. Running time depends
+ * on the number of differences D, not on the product of the sequence lengths.
+ *
+ * @author tstoyanov
+ */
+public class MyersDiff {
+
+  private final int[] text1Words;
+
+  private final int[] text2Words;
+
+  private final int[] forwardDiagonals;
+
+  private final int[] backwardDiagonals;
+
+  private final int diagonalOffset;
+
+  private final EditScript script;
+
+  private final DiffBudget.Meter meter;
+
+  private MyersDiff(int[] text1Words, int[] text2Words, int xOff, int xLim, int yOff, int yLim,
+      EditScript script, DiffBudget.Meter meter) {
+    this.text1Words = text1Words;
+    this.text2Words = text2Words;
+    int diagonals = (xLim - xOff) + (yLim - yOff) + 3;
+    this.forwardDiagonals = new int[diagonals];
+    this.backwardDiagonals = new int[diagonals];
+    this.diagonalOffset = yLim - xOff + 1;
+    this.script = script;
+    this.meter = meter;
+  }
+
+  /**
+   * Finds a shortest edit script turning the first word sequence into the second one.
+   *
+   * @param text1Words
+   * @param text2Words
+   * @return edit script
+   */
+  public static EditScript diff(int[] text1Words, int[] text2Words) {
+    EditScript script = new EditScript(text1Words.length, text2Words.length);
+    diff(text1Words, 0, text1Words.length, text2Words, 0, text2Words.length, script);
+    return script;
+  }
+
+  /**
+   * Diffs a part of both sequences and marks the deleted and inserted words of that part in the
+   * given script. Positions outside of the ranges are left untouched.
+   *
+   * @param text1Words
+   * @param text1From - first position of the range in the first sequence
+   * @param text1To - end of the range in the first sequence, exclusive
+   * @param text2Words
+   * @param text2From - first position of the range in the second sequence
+   * @param text2To - end of the range in the second sequence, exclusive
+   * @param script - script covering both whole sequences
+   */
+  public static void diff(int[] text1Words, int text1From, int text1To, int[] text2Words,
+      int text2From, int text2To, EditScript script) {
+    diff(text1Words, text1From, text1To, text2Words, text2From, text2To, script,
+        DiffBudget.UNLIMITED.start());
+  }
+
+  /**
+   * Same as {@link #diff(int[], int, int, int[], int, int, EditScript)}, stopped with a
+   * {@link DiffBudget.ExceededException} as soon as the part is known to need more edits than the
+   * meter allows or the time is up.
+   */
+  public static void diff(int[] text1Words, int text1From, int text1To, int[] text2Words,
+      int text2From, int text2To, EditScript script, DiffBudget.Meter meter) {
+    if (text1From == text1To) {
+      script.markInserted(text2From, text2To);
+    }
+    else if (text2From == text2To) {
+      script.markDeleted(text1From, text1To);
+    }
+    else {
+      MyersDiff diff = new MyersDiff(text1Words, text2Words, text1From, text1To, text2From,
+          text2To, script, meter);
+      diff.compareSequences(text1From, text1To, text2From, text2To);
+    }
+  }
+
+  private void compareSequences(int xOff, int xLim, int yOff, int yLim) {
+    while (xOff < xLim && yOff < yLim && this.text1Words[xOff] == this.text2Words[yOff]) {
+      xOff++;
+      yOff++;
+    }
+    while (xLim > xOff && yLim > yOff
+        && this.text1Words[xLim - 1] == this.text2Words[yLim - 1]) {
+      xLim--;
+      yLim--;
+    }
+
+    if (xOff == xLim) {
+      this.script.markInserted(yOff, yLim);
+    }
+    else if (yOff == yLim) {
+      this.script.markDeleted(xOff, xLim);
+    }
+    else {
+      long middle = this.findMiddleSnake(xOff, xLim, yOff, yLim);
+      int xMid = (int) (middle >>> 32);
+      int yMid = (int) middle;
+      this.compareSequences(xOff, xMid, yOff, yMid);
+      this.compareSequences(xMid, xLim, yMid, yLim);
+    }
+  }
+
+  /**
+   * Runs the forward and the backward search at the same time until they overlap on some diagonal.
+   * Both ends of the sequences are expected to be already stripped from matching words.
+   *
+   * @return the split point packed as x in the high and y in the low 32 bits
+   */
+  private long findMiddleSnake(int xOff, int xLim, int yOff, int yLim) {
+    int[] fd = this.forwardDiagonals;
+    int[] bd = this.backwardDiagonals;
+    int o = this.diagonalOffset;
+
+    int dMin = xOff - yLim;
+    int dMax = xLim - yOff;
+    int fMid = xOff - yOff;
+    int bMid = xLim - yLim;
+    int fMin = fMid, fMax = fMid;
+    int bMin = bMid, bMax = bMid;
+    boolean odd = ((fMid - bMid) & 1) != 0;
+
+    fd[fMid + o] = xOff;
+    bd[bMid + o] = xLim;
+
+    // after c rounds without an overlap the part needs at least 2c - 1 edits
+    for (int c = 0;; c++) {
+      this.meter.check(2 * c - 1);
+      if (fMin > dMin) {
+        fd[--fMin - 1 + o] = -1;
+      }
+      else {
+        ++fMin;
+      }
+      if (fMax < dMax) {
+        fd[++fMax + 1 + o] = -1;
+      }
+      else {
+        --fMax;
+      }
+      for (int d = fMax; d >= fMin; d -= 2) {
+        int tLo = fd[d - 1 + o];
+        int tHi = fd[d + 1 + o];
+        int x = tLo >= tHi ? tLo + 1 : tHi;
+        int y = x - d;
+        while (x < xLim && y < yLim && this.text1Words[x] == this.text2Words[y]) {
+          x++;
+          y++;
+        }
+        fd[d + o] = x;
+        if (odd && bMin <= d && d <= bMax && bd[d + o] <= x) {
+          return ((long) x << 32) | (y & 0xFFFFFFFFL);
+        }
+      }
+
+      if (bMin > dMin) {
+        bd[--bMin - 1 + o] = Integer.MAX_VALUE;
+      }
+      else {
+        ++bMin;
+      }
+      if (bMax < dMax) {
+        bd[++bMax + 1 + o] = Integer.MAX_VALUE;
+      }
+      else {
+        --bMax;
+      }
+      for (int d = bMax; d >= bMin; d -= 2) {
+        int tLo = bd[d - 1 + o];
+        int tHi = bd[d + 1 + o];
+        int x = tLo < tHi ? tLo : tHi - 1;
+        int y = x - d;
+        while (x > xOff && y > yOff && this.text1Words[x - 1] == this.text2Words[y - 1]) {
+          x--;
+          y--;
+        }
+        bd[d + o] = x;
+        if (!odd && fMin <= d && d <= fMax && x <= fd[d + o]) {
+          return ((long) x << 32) | (y & 0xFFFFFFFFL);
+        }
+      }
+    }
+  }
+}
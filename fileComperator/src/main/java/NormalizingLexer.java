@@ -0,0 +1,281 @@
+import java.util.Arrays;
+
+/**
+ * Turns raw XML/HTML text into the word ids compared by {@link FileComparator} in one pass.
+ * Characters are fed in any number of chunks; the lexer
+ * <ul>
+ * <li>optionally joins lines until one of them closes a tag and removes the spaces around
+ * <code>&gt;</code> and <code>/&gt;</code> of those lines,</li>
+ * <li>trims the text, escapes <code>&lt;</code> and <code>&gt;</code>, turns line ends into
+ * <code>&lt;br&gt;</code>,</li>
+ * <li>collapses tabs and spaces and emits every word into the dictionary.</li>
+ * </ul>
+ * Only the current line and the current word are buffered, both in reused char arrays. A line
+ * longer than {@link #MAX_LINE_LENGTH}, like the single line of a minified document, is not
+ * buffered whole: it is normalized as if lines were not joined, so its size does not matter.
+ *
+ * @author tstoyanov
+ */
+public class NormalizingLexer {
+
+  private static final char[] LINE_BREAK = "<br>".toCharArray();
+
+  private static final char[] LESS_THAN = "&lt;".toCharArray();
+
+  private static final char[] GREATER_THAN = "&gt;".toCharArray();
+
+  /**
+   * Longest line that is buffered to be joined
+   */
+  private static final int MAX_LINE_LENGTH = 1 << 20;
+
+  private final TokenDictionary dictionary;
+
+  private final boolean joinTagLines;
+
+  private char[] line = new char[256];
+
+  private int lineLength;
+
+  /**
+   * True while the rest of a line over {@link #MAX_LINE_LENGTH} is normalized without buffering
+   */
+  private boolean longLine;
+
+  private boolean started;
+
+  private char[] whitespace = new char[16];
+
+  private int whitespaceLength;
+
+  private boolean pendingCarriageReturn;
+
+  private char[] word = new char[64];
+
+  private int wordLength;
+
+  private int[] words = new int[1024];
+
+  private int wordCount;
+
+  /**
+   * @param dictionary - dictionary the words are interned into
+   * @param joinTagLines - true to join lines until a tag closes, as done for the text report
+   */
+  public NormalizingLexer(TokenDictionary dictionary, boolean joinTagLines) {
+    this.dictionary = dictionary;
+    this.joinTagLines = joinTagLines;
+  }
+
+  /**
+   * Normalizes a whole text at once.
+   *
+   * @param text
+   * @param dictionary
+   * @param joinTagLines
+   * @return word ids in text order
+   */
+  public static int[] tokenize(CharSequence text, TokenDictionary dictionary,
+      boolean joinTagLines) {
+    NormalizingLexer lexer = new NormalizingLexer(dictionary, joinTagLines);
+    lexer.feed(text);
+    return lexer.finish();
+  }
+
+  public void feed(CharSequence text) {
+    for (int i = 0; i < text.length(); i++) {
+      this.accept(text.charAt(i));
+    }
+  }
+
+  public void feed(char[] chars, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      this.accept(chars[i]);
+    }
+  }
+
+  /**
+   * Ends the input.
+   *
+   * @return word ids in text order
+   */
+  public int[] finish() {
+    if (this.joinTagLines && this.lineLength > 0) {
+      this.endLine();
+    }
+    // trailing whitespace is trimmed
+    this.whitespaceLength = 0;
+    this.endWord();
+    if (this.wordCount == 0) {
+      this.addWord(this.dictionary.intern(this.word, 0, 0));
+    }
+    return Arrays.copyOf(this.words, this.wordCount);
+  }
+
+  private void accept(char c) {
+    if (!this.joinTagLines) {
+      this.normalize(c);
+    }
+    else if (this.longLine) {
+      this.normalize(c);
+      this.longLine = c != '\n';
+    }
+    else if (c == '\n') {
+      this.endLine();
+    }
+    else if (this.lineLength == MAX_LINE_LENGTH) {
+      for (int i = 0; i < this.lineLength; i++) {
+        this.normalize(this.line[i]);
+      }
+      this.lineLength = 0;
+      this.longLine = true;
+      this.normalize(c);
+    }
+    else {
+      if (this.lineLength == this.line.length) {
+        this.line = Arrays.copyOf(this.line, Math.min(this.lineLength * 2, MAX_LINE_LENGTH));
+      }
+      this.line[this.lineLength++] = c;
+    }
+  }
+
+  /**
+   * Blank lines are dropped. A line that does not end with '>' is joined with the next one, with
+   * carriage returns turned into spaces. A line that ends with '>' loses one space before each '>'
+   * and '/&gt;' and one space after each '>' (two after '/&gt;').
+   */
+  private void endLine() {
+    char[] l = this.line;
+    int length = this.lineLength;
+    this.lineLength = 0;
+
+    int last = length - 1;
+    while (last >= 0 && l[last] <= ' ') {
+      last--;
+    }
+    if (last < 0) {
+      return;
+    }
+
+    if (l[last] != '>') {
+      for (int i = 0; i < length; i++) {
+        this.normalize(l[i] == '\r' ? ' ' : l[i]);
+      }
+      return;
+    }
+
+    int i = 0;
+    while (i < length) {
+      if (l[i] != ' ') {
+        this.normalize(l[i]);
+        i++;
+        continue;
+      }
+      int runStart = i;
+      while (i < length && l[i] == ' ') {
+        i++;
+      }
+      int removed = 0;
+      if (i < length && l[i] == '>') {
+        removed++;
+      }
+      if (i + 1 < length && l[i] == '/' && l[i + 1] == '>') {
+        removed++;
+      }
+      int before = runStart - 1;
+      if (before >= 0 && l[before] == '>') {
+        removed++;
+        if (before >= 1 && (l[before - 1] == '/'
+            || before >= 2 && l[before - 1] == ' ' && l[before - 2] == '/')) {
+          removed++;
+        }
+      }
+      for (int s = i - runStart - removed; s > 0; s--) {
+        this.normalize(' ');
+      }
+    }
+    this.normalize('\n');
+  }
+
+  /**
+   * Trims, escapes and splits the text. Whitespace is held back until the next visible character,
+   * so that the end of the text can be trimmed.
+   */
+  private void normalize(char c) {
+    if (c <= ' ') {
+      if (this.started) {
+        if (this.whitespaceLength == this.whitespace.length) {
+          this.whitespace = Arrays.copyOf(this.whitespace, this.whitespaceLength * 2);
+        }
+        this.whitespace[this.whitespaceLength++] = c;
+      }
+      return;
+    }
+    this.started = true;
+    for (int i = 0; i < this.whitespaceLength; i++) {
+      this.map(this.whitespace[i]);
+    }
+    this.whitespaceLength = 0;
+    this.map(c);
+  }
+
+  private void map(char c) {
+    if (this.pendingCarriageReturn) {
+      this.pendingCarriageReturn = false;
+      if (c == '\n') {
+        this.appendToWord(LINE_BREAK);
+        this.endWord();
+        return;
+      }
+      this.appendToWord('\r');
+    }
+    switch (c) {
+      case '\r':
+        this.pendingCarriageReturn = true;
+        break;
+      case '\n':
+        this.appendToWord(LINE_BREAK);
+        this.endWord();
+        break;
+      case '<':
+        this.appendToWord(LESS_THAN);
+        break;
+      case '>':
+        this.appendToWord(GREATER_THAN);
+        break;
+      case ' ':
+      case '\t':
+        this.endWord();
+        break;
+      default:
+        this.appendToWord(c);
+    }
+  }
+
+  private void appendToWord(char c) {
+    if (this.wordLength == this.word.length) {
+      this.word = Arrays.copyOf(this.word, this.wordLength * 2);
+    }
+    this.word[this.wordLength++] = c;
+  }
+
+  private void appendToWord(char[] chars) {
+    for (char c : chars) {
+      this.appendToWord(c);
+    }
+  }
+
+  private void endWord() {
+    if (this.wordLength > 0) {
+      this.addWord(this.dictionary.intern(this.word, 0, this.wordLength));
+      this.wordLength = 0;
+    }
+  }
+
+  private void addWord(int id) {
+    if (this.wordCount == this.words.length) {
+      this.words = Arrays.copyOf(this.words, this.wordCount * 2);
+    }
+    this.words[this.wordCount++] = id;
+  }
+}
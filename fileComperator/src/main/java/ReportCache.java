@@ -0,0 +1,174 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Comparison results of earlier runs, keyed by the content digests of both files. A pair whose
+ * files did not change since the last run gets its result from here without being read or diffed
+ * again. Results are only reused with the same comparator settings; only the results used or made
+ * in a run are saved.
+ * <p>
+ * Loading the cache reads the keys and the positions of the results only, a result is read from the
+ * cache file when it is used. The results made in a run are kept in a {@link SpillFile} until the
+ * cache is saved.
+ *
+ * @author tstoyanov
+ */
+public class ReportCache {
+
+  private static final int MAGIC = 0x46435233;
+
+  private final Path cacheFile;
+
+  private final String settings;
+
+  /**
+   * Position and length of the results in the cache file, by key
+   */
+  private final Map<String, long[]> previous = new HashMap<>();
+
+  /**
+   * Keys of the results of the cache file used in this run
+   */
+  private final Set<String> reused = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Position and length of the results made in this run in the spill file, by key
+   */
+  private final Map<String, long[]> made = new ConcurrentHashMap<>();
+
+  private FileChannel channel;
+
+  private SpillFile spill;
+
+  /**
+   * @param cacheFile - file to load the results from and to save them to
+   * @param settings - description of the comparator settings the results are made with
+   * @throws IOException
+   */
+  public ReportCache(Path cacheFile, String settings) throws IOException {
+    this.cacheFile = cacheFile;
+    this.settings = settings;
+    if (Files.exists(cacheFile)) {
+      this.load();
+    }
+  }
+
+  /**
+   * @param digest1
+   * @param digest2
+   * @return the result of an earlier comparison of the two contents, without the file name line,
+   *         null if there is none
+   * @throws IOException
+   */
+  public String get(String digest1, String digest2) throws IOException {
+    String key = digest1 + digest2;
+    long[] block = this.made.get(key);
+    if (block != null) {
+      return new String(this.spill.read(block[0], (int) block[1]), StandardCharsets.UTF_8);
+    }
+    block = this.previous.get(key);
+    if (block == null) {
+      return null;
+    }
+    this.reused.add(key);
+    return new String(this.readPrevious(block), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @param digest1
+   * @param digest2
+   * @param result - result of the comparison without the file name line
+   * @throws IOException
+   */
+  public void put(String digest1, String digest2, String result) throws IOException {
+    byte[] bytes = result.getBytes(StandardCharsets.UTF_8);
+    synchronized (this) {
+      if (this.spill == null) {
+        this.spill = new SpillFile(this.cacheFile.toAbsolutePath().getParent(), "reports");
+      }
+    }
+    this.made.put(digest1 + digest2, new long[] { this.spill.append(bytes), bytes.length });
+  }
+
+  private synchronized byte[] readPrevious(long[] block) throws IOException {
+    if (this.channel == null) {
+      this.channel = FileChannel.open(this.cacheFile, StandardOpenOption.READ);
+    }
+    return SpillFile.read(this.channel, this.cacheFile, block[0], (int) block[1]);
+  }
+
+  /**
+   * @throws IOException
+   */
+  public synchronized void save() throws IOException {
+    Set<String> keys = new HashSet<>(this.reused);
+    keys.addAll(this.made.keySet());
+    Path parent = this.cacheFile.toAbsolutePath().getParent();
+    Path temp = Files.createTempFile(parent, "reports", ".tmp");
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(temp)))) {
+      out.writeInt(MAGIC);
+      TreeSnapshot.writeString(out, this.settings);
+      out.writeInt(keys.size());
+      for (String key : keys) {
+        long[] block = this.made.get(key);
+        byte[] result = block != null ? this.spill.read(block[0], (int) block[1])
+            : this.readPrevious(this.previous.get(key));
+        TreeSnapshot.writeString(out, key);
+        out.writeInt(result.length);
+        out.write(result);
+      }
+    }
+    if (this.channel != null) {
+      this.channel.close();
+      this.channel = null;
+    }
+    if (this.spill != null) {
+      this.spill.close();
+      this.spill = null;
+      this.made.clear();
+    }
+    Files.move(temp, this.cacheFile, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private void load() throws IOException {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(this.cacheFile)))) {
+      if (in.readInt() != MAGIC || !TreeSnapshot.readString(in).equals(this.settings)) {
+        // other format or other settings, every pair is compared again
+        return;
+      }
+      long position = 4 + 4 + this.settings.getBytes(StandardCharsets.UTF_8).length;
+      int count = in.readInt();
+      position += 4;
+      Map<String, long[]> loaded = new HashMap<>();
+      for (int i = 0; i < count; i++) {
+        String key = TreeSnapshot.readString(in);
+        int length = in.readInt();
+        position += 4 + key.getBytes(StandardCharsets.UTF_8).length + 4;
+        loaded.put(key, new long[] { position, length });
+        TreeSnapshot.skipFully(in, length);
+        position += length;
+      }
+      this.previous.putAll(loaded);
+    }
+    catch (EOFException e) {
+      // truncated cache, every pair is compared again
+    }
+  }
+}
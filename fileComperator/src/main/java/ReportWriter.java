@@ -0,0 +1,56 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes the comparison report while the run is in progress. Every file result is flushed to the
+ * channel as soon as it is written, so memory does not grow with the size of the report and an
+ * interrupted run still leaves the results found so far.
+ *
+ * @author tstoyanov
+ */
+public class ReportWriter implements Closeable {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final FileChannel channel;
+
+  private final Writer writer;
+
+  /**
+   * @param report - file to write the report to, an existing file is replaced
+   * @throws IOException
+   */
+  public ReportWriter(Path report) throws IOException {
+    this.channel = FileChannel.open(report, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    this.writer = Channels.newWriter(this.channel, StandardCharsets.UTF_8.newEncoder(),
+        BUFFER_SIZE);
+  }
+
+  /**
+   * Writes the result of one file and pushes it to the channel.
+   *
+   * @param result
+   * @throws IOException
+   */
+  public void write(String result) throws IOException {
+    this.writer.write(result);
+    this.writer.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      this.writer.close();
+    }
+    finally {
+      this.channel.close();
+    }
+  }
+}
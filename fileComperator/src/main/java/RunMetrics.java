@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Statistics of one run: wall time of every phase, number of files of every scanned tree and the
+ * {@link FileMetrics} of every compared pair. Exported as JSON or CSV, chosen by the extension of
+ * the file, and summarized with the slowest pairs.
+ *
+ * @author tstoyanov
+ */
+public class RunMetrics {
+
+  private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+
+  private final ConcurrentLinkedQueue<FileMetrics> files = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Number of files of every scanned tree, in the order they are scanned
+   */
+  private final List<Integer> scannedFiles = new ArrayList<>();
+
+  private String currentPhase;
+
+  private long phaseStart;
+
+  /**
+   * Ends the current phase, if any, and starts the given one.
+   *
+   * @param phase
+   */
+  public synchronized void startPhase(String phase) {
+    this.endPhase();
+    this.currentPhase = phase;
+    this.phaseStart = System.nanoTime();
+  }
+
+  /**
+   * Ends the current phase, if any.
+   */
+  public synchronized void endPhase() {
+    if (this.currentPhase != null) {
+      this.phaseNanos.merge(this.currentPhase, System.nanoTime() - this.phaseStart, Long::sum);
+      this.currentPhase = null;
+    }
+  }
+
+  /**
+   * @param fileCount - number of files found in a scanned tree
+   */
+  public synchronized void addScannedTree(int fileCount) {
+    this.scannedFiles.add(fileCount);
+  }
+
+  /**
+   * @param file - metrics of a compared pair
+   */
+  public void add(FileMetrics file) {
+    this.files.add(file);
+  }
+
+  /**
+   * Writes the metrics as JSON, or as CSV with one row per pair when the file name ends with
+   * <code>.csv</code>.
+   *
+   * @param output
+   * @throws IOException
+   */
+  public void write(Path output) throws IOException {
+    try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+      if (output.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv")) {
+        this.writeCsv(writer);
+      }
+      else {
+        this.writeJson(writer);
+      }
+    }
+  }
+
+  private synchronized void writeJson(Writer writer) throws IOException {
+    writer.write("{\n  \"phases\": {");
+    String separator = "\n";
+    for (Map.Entry<String, Long> phase : this.phaseNanos.entrySet()) {
+      writer.write(separator + "    " + jsonString(phase.getKey()) + ": "
+          + micros(phase.getValue()));
+      separator = ",\n";
+    }
+    writer.write("\n  },\n  \"scannedFiles\": " + this.scannedFiles + ",\n  \"files\": [");
+    separator = "\n";
+    for (FileMetrics file : this.files) {
+      writer.write(separator + "    {\"name\": " + jsonString(file.getFileName())
+          + ", \"outcome\": \"" + file.getOutcome() + "\", \"bytes\": " + file.getBytes()
+          + ", \"tokens1\": " + file.getTokens1() + ", \"tokens2\": " + file.getTokens2()
+          + ", \"editDistance\": " + file.getEditDistance() + ", \"readMicros\": "
+          + micros(file.getReadNanos()) + ", \"diffMicros\": " + micros(file.getDiffNanos())
+          + ", \"renderMicros\": " + micros(file.getRenderNanos()) + ", \"totalMicros\": "
+          + micros(file.getTotalNanos()) + ", \"allocatedBytes\": " + file.getAllocatedBytes()
+          + "}");
+      separator = ",\n";
+    }
+    writer.write("\n  ]\n}\n");
+  }
+
+  private void writeCsv(Writer writer) throws IOException {
+    writer.write("name,outcome,bytes,tokens1,tokens2,editDistance,readMicros,diffMicros,"
+        + "renderMicros,totalMicros,allocatedBytes\n");
+    for (FileMetrics file : this.files) {
+      writer.write("\"" + file.getFileName().replace("\"", "\"\"") + "\"," + file.getOutcome()
+          + "," + file.getBytes() + "," + file.getTokens1() + "," + file.getTokens2() + ","
+          + file.getEditDistance() + "," + micros(file.getReadNanos()) + ","
+          + micros(file.getDiffNanos()) + "," + micros(file.getRenderNanos()) + ","
+          + micros(file.getTotalNanos()) + "," + file.getAllocatedBytes() + "\n");
+    }
+  }
+
+  /**
+   * @param slowest - number of slowest pairs to list
+   * @return phase times, totals per outcome and the slowest pairs, one per line
+   */
+  public synchronized String summary(int slowest) {
+    StringBuilder summary = new StringBuilder("Phases:");
+    for (Map.Entry<String, Long> phase : this.phaseNanos.entrySet()) {
+      summary.append(String.format(" %s %d ms,", phase.getKey(), millis(phase.getValue())));
+    }
+    summary.setLength(summary.length() - 1);
+    summary.append(System.lineSeparator());
+    summary.append("Scanned files: ").append(this.scannedFiles).append(System.lineSeparator());
+
+    Map<FileMetrics.Outcome, Integer> outcomes = new EnumMap<>(FileMetrics.Outcome.class);
+    long bytes = 0;
+    long read = 0;
+    long diff = 0;
+    long render = 0;
+    for (FileMetrics file : this.files) {
+      outcomes.merge(file.getOutcome(), 1, Integer::sum);
+      bytes += file.getBytes();
+      read += file.getReadNanos();
+      diff += file.getDiffNanos();
+      render += file.getRenderNanos();
+    }
+    summary.append(String.format("Pairs: %d %s, %d bytes, read %d ms, diff %d ms, render %d ms%n",
+        this.files.size(), outcomes, bytes, millis(read), millis(diff), millis(render)));
+
+    List<FileMetrics> sorted = new ArrayList<>(this.files);
+    sorted.sort(Comparator.comparingLong(FileMetrics::getTotalNanos).reversed());
+    summary.append("Slowest pairs:").append(System.lineSeparator());
+    for (FileMetrics file : sorted.subList(0, Math.min(slowest, sorted.size()))) {
+      summary.append(String.format("%8d ms %s (%s, read %d ms, diff %d ms, render %d ms, "
+          + "%d/%d words, %d edits)%n", millis(file.getTotalNanos()), file.getFileName(),
+          file.getOutcome(), millis(file.getReadNanos()), millis(file.getDiffNanos()),
+          millis(file.getRenderNanos()), file.getTokens1(), file.getTokens2(),
+          file.getEditDistance()));
+    }
+    return summary.toString();
+  }
+
+  private static long micros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+
+  private static long millis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  private static String jsonString(String value) {
+    StringBuilder json = new StringBuilder("\"");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      }
+      else if (c < 0x20) {
+        json.append(String.format("\\u%04x", (int) c));
+      }
+      else {
+        json.append(c);
+      }
+    }
+    return json.append('"').toString();
+  }
+}
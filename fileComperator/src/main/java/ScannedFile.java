@@ -0,0 +1,69 @@
+import java.nio.file.Path;
+
+/**
+ * File found by the {@link DirectoryScanner} together with the attributes read while scanning.
+ *
+ * @author tstoyanov
+ */
+public class ScannedFile {
+
+  public static final long NO_CRC = -1;
+
+  private final String relativePath;
+
+  private final Path path;
+
+  private final long size;
+
+  private final long lastModified;
+
+  private final long crc;
+
+  public ScannedFile(String relativePath, Path path, long size, long lastModified) {
+    this(relativePath, path, size, lastModified, NO_CRC);
+  }
+
+  /**
+   * @param relativePath
+   * @param path
+   * @param size
+   * @param lastModified
+   * @param crc - CRC-32 of the content as stored in an archive, {@link #NO_CRC} if unknown
+   */
+  public ScannedFile(String relativePath, Path path, long size, long lastModified, long crc) {
+    this.relativePath = relativePath;
+    this.path = path;
+    this.size = size;
+    this.lastModified = lastModified;
+    this.crc = crc;
+  }
+
+  /**
+   * @return path relative to the scanned root, with '/' as separator
+   */
+  public String getRelativePath() {
+    return this.relativePath;
+  }
+
+  public Path getPath() {
+    return this.path;
+  }
+
+  public long getSize() {
+    return this.size;
+  }
+
+  /**
+   * @return last modified time in milliseconds
+   */
+  public long getLastModified() {
+    return this.lastModified;
+  }
+
+  /**
+   * @return CRC-32 of the content when the file is an archive entry, {@link #NO_CRC} otherwise
+   */
+  public long getCrc() {
+    return this.crc;
+  }
+}
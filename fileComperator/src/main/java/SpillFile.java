@@ -0,0 +1,87 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Temporary file that blocks of bytes are appended to and read back from by their position, so
+ * data made during a run and saved at its end does not have to be kept in memory. The file is
+ * created next to the file the data is saved to and deleted when it is closed.
+ *
+ * @author tstoyanov
+ */
+public class SpillFile implements Closeable {
+
+  private final Path file;
+
+  private final FileChannel channel;
+
+  private long size;
+
+  /**
+   * @param folder - folder to create the file in
+   * @param prefix - prefix of the file name
+   * @throws IOException
+   */
+  public SpillFile(Path folder, String prefix) throws IOException {
+    this.file = Files.createTempFile(folder, prefix, ".tmp");
+    this.channel = FileChannel.open(this.file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+        StandardOpenOption.DELETE_ON_CLOSE);
+  }
+
+  /**
+   * @param bytes
+   * @return position of the bytes in the file
+   * @throws IOException
+   */
+  public synchronized long append(byte[] bytes) throws IOException {
+    long offset = this.size;
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining()) {
+      this.channel.write(buffer, offset + buffer.position());
+    }
+    this.size += bytes.length;
+    return offset;
+  }
+
+  /**
+   * @param offset - position returned by {@link #append(byte[])}
+   * @param length - length of the appended bytes
+   * @return the appended bytes
+   * @throws IOException
+   */
+  public byte[] read(long offset, int length) throws IOException {
+    return read(this.channel, this.file, offset, length);
+  }
+
+  /**
+   * Reads a block of a file without moving the position of the channel, so several threads can
+   * read from the same channel.
+   *
+   * @param channel
+   * @param file - file of the channel, for the error message
+   * @param offset
+   * @param length
+   * @return the bytes of the block
+   * @throws IOException
+   */
+  static byte[] read(FileChannel channel, Path file, long offset, int length)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new EOFException(file + " is truncated");
+      }
+    }
+    return buffer.array();
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.channel.close();
+  }
+}
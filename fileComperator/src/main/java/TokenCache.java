@@ -0,0 +1,134 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Words of recently compared files kept in memory between comparisons, keyed by content digest,
+ * so a changed file is never taken from the cache and files with the same content, under other
+ * paths or in other versions, are normalized once. The least recently used files are dropped when
+ * the estimated size of the cache goes over its limit. A file without a known digest is digested
+ * and normalized in the same read. Safe for use by several threads.
+ *
+ * @author tstoyanov
+ */
+public class TokenCache implements TokenSource {
+
+  public static final long DEFAULT_MEGABYTES = 256;
+
+  /**
+   * Estimated bytes of a distinct word besides its characters
+   */
+  private static final int WORD_OVERHEAD = 48;
+
+  private final DigestCache digestCache;
+
+  private final long maxBytes;
+
+  private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long bytes;
+
+  /**
+   * @param digestCache - cache the content digests of the files are taken from
+   * @param maxBytes - limit of the estimated size of the cached words
+   */
+  public TokenCache(DigestCache digestCache, long maxBytes) {
+    this.digestCache = digestCache;
+    this.maxBytes = maxBytes;
+  }
+
+  @Override
+  public int[] tokenize(Path file, TokenDictionary dictionary) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+    long size = attributes.size();
+    long lastModified = attributes.lastModifiedTime().toMillis();
+    String key = this.digestCache.getCachedDigest(file, size, lastModified);
+    Entry entry = null;
+    if (key != null) {
+      synchronized (this) {
+        entry = this.entries.get(key);
+      }
+    }
+    if (entry != null) {
+      return entry.decode(dictionary);
+    }
+
+    NormalizingLexer lexer = new NormalizingLexer(dictionary, true);
+    if (key == null) {
+      MessageDigest digest = DigestCache.newMessageDigest();
+      ChunkedFileReader.read(file, lexer, digest);
+      key = DigestCache.toHex(digest.digest());
+      this.digestCache.put(file, size, lastModified, key);
+    }
+    else {
+      ChunkedFileReader.read(file, lexer);
+    }
+    int[] words = lexer.finish();
+    entry = new Entry(words, dictionary);
+    synchronized (this) {
+      if (this.entries.put(key, entry) == null) {
+        this.bytes += entry.bytes;
+      }
+      Iterator<Entry> eldest = this.entries.values().iterator();
+      while (this.bytes > this.maxBytes && eldest.hasNext()) {
+        this.bytes -= eldest.next().bytes;
+        eldest.remove();
+      }
+    }
+    return words;
+  }
+
+  /**
+   * Words of one file with a table of the distinct words, so they do not depend on the dictionary
+   * of the comparison
+   */
+  private static final class Entry {
+
+    private final String[] distinctWords;
+
+    private final int[] localIds;
+
+    private final long bytes;
+
+    private Entry(int[] words, TokenDictionary dictionary) {
+      int[] localIdOf = new int[dictionary.size()];
+      Arrays.fill(localIdOf, -1);
+      String[] distinct = new String[16];
+      int distinctCount = 0;
+      long size = 4L * words.length;
+      this.localIds = new int[words.length];
+      for (int i = 0; i < words.length; i++) {
+        int word = words[i];
+        if (localIdOf[word] < 0) {
+          if (distinctCount == distinct.length) {
+            distinct = Arrays.copyOf(distinct, distinctCount * 2);
+          }
+          distinct[distinctCount] = dictionary.getWord(word);
+          size += WORD_OVERHEAD + 2L * distinct[distinctCount].length();
+          localIdOf[word] = distinctCount++;
+        }
+        this.localIds[i] = localIdOf[word];
+      }
+      this.distinctWords = Arrays.copyOf(distinct, distinctCount);
+      this.bytes = size;
+    }
+
+    private int[] decode(TokenDictionary dictionary) {
+      int[] ids = new int[this.distinctWords.length];
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = dictionary.intern(this.distinctWords[i]);
+      }
+      int[] words = new int[this.localIds.length];
+      for (int i = 0; i < words.length; i++) {
+        words[i] = ids[this.localIds[i]];
+      }
+      return words;
+    }
+  }
+}
@@ -0,0 +1,131 @@
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Per comparison dictionary of words. Every distinct word is hashed once and gets a small int id,
+ * after that the diff and the renderer only compare ids. Words can be looked up straight from a
+ * char buffer, so a String is only created the first time a word is seen.
+ *
+ * @author tstoyanov
+ */
+public class TokenDictionary {
+
+  private static final String LINE_BREAK = "<br>";
+
+  private String[] words = new String[64];
+
+  private int[] hashes = new int[64];
+
+  /**
+   * Open addressing table of word id + 1, 0 marks a free slot
+   */
+  private int[] table = new int[128];
+
+  private int size;
+
+  private final BitSet lineBreaks = new BitSet();
+
+  /**
+   * @param word
+   * @return id of the given word, a new one is assigned on first use
+   */
+  public int intern(String word) {
+    char[] chars = word.toCharArray();
+    return this.intern(chars, 0, chars.length);
+  }
+
+  /**
+   * @param chars
+   * @param offset
+   * @param length
+   * @return id of the word stored in the given part of the buffer, a new one is assigned on first
+   *         use
+   */
+  public int intern(char[] chars, int offset, int length) {
+    int hash = 0;
+    for (int i = offset; i < offset + length; i++) {
+      hash = 31 * hash + chars[i];
+    }
+
+    int mask = this.table.length - 1;
+    int slot = mix(hash) & mask;
+    int entry;
+    while ((entry = this.table[slot]) != 0) {
+      int id = entry - 1;
+      if (this.hashes[id] == hash && sameChars(this.words[id], chars, offset, length)) {
+        return id;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    int id = this.size++;
+    if (id == this.words.length) {
+      this.words = Arrays.copyOf(this.words, id * 2);
+      this.hashes = Arrays.copyOf(this.hashes, id * 2);
+    }
+    String word = new String(chars, offset, length);
+    this.words[id] = word;
+    this.hashes[id] = hash;
+    this.table[slot] = id + 1;
+    if (word.endsWith(LINE_BREAK)) {
+      this.lineBreaks.set(id);
+    }
+    if (this.size * 2 > this.table.length) {
+      this.rehash();
+    }
+    return id;
+  }
+
+  private void rehash() {
+    int[] newTable = new int[this.table.length * 2];
+    int mask = newTable.length - 1;
+    for (int id = 0; id < this.size; id++) {
+      int slot = mix(this.hashes[id]) & mask;
+      while (newTable[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      newTable[slot] = id + 1;
+    }
+    this.table = newTable;
+  }
+
+  private static int mix(int hash) {
+    int h = hash * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private static boolean sameChars(String word, char[] chars, int offset, int length) {
+    if (word.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (word.charAt(i) != chars[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param id
+   * @return the word with the given id
+   */
+  public String getWord(int id) {
+    return this.words[id];
+  }
+
+  /**
+   * @param id
+   * @return true when the word with the given id ends with a line break
+   */
+  public boolean isLineBreak(int id) {
+    return this.lineBreaks.get(id);
+  }
+
+  /**
+   * @return number of distinct words
+   */
+  public int size() {
+    return this.size;
+  }
+}
@@ -0,0 +1,25 @@
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Supplies the word ids of a file as the text report compares them, with the lines of a tag
+ * joined, see {@link NormalizingLexer#NormalizingLexer(TokenDictionary, boolean)}.
+ *
+ * @author tstoyanov
+ */
+public interface TokenSource {
+
+  /**
+   * Reads and normalizes the file every time
+   */
+  TokenSource READ_FILES =
+      (file, dictionary) -> ChunkedFileReader.tokenize(file, dictionary, true);
+
+  /**
+   * @param file
+   * @param dictionary - dictionary the words are interned into
+   * @return word ids of the normalized file content
+   * @throws IOException
+   */
+  int[] tokenize(Path file, TokenDictionary dictionary) throws IOException;
+}
@@ -0,0 +1,341 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent snapshot of one tree: relative path, size, last modified time, content digest and the
+ * normalized words of every file. A later run loads the snapshot and takes the digest and the words
+ * of every file whose size and last modified time did not change from it, so only changed files
+ * are read and normalized again. The words are read from the snapshot file on demand; loading a
+ * snapshot reads the metadata only. The words of the files normalized in a run are kept in a
+ * {@link SpillFile} until the snapshot is saved.
+ *
+ * @author tstoyanov
+ */
+public class TreeSnapshot implements TokenSource {
+
+  private static final int MAGIC = 0x46435331;
+
+  private final Path snapshotFile;
+
+  private final Path root;
+
+  private final DigestCache digestCache;
+
+  /**
+   * Entries of the previous run, by relative path
+   */
+  private final Map<String, Entry> entries = new HashMap<>();
+
+  /**
+   * Files normalized during this run, by relative path, with the position of their encoded words
+   * in the spill file
+   */
+  private final Map<String, Entry> freshEntries = new ConcurrentHashMap<>();
+
+  private SpillFile freshWords;
+
+  private Map<String, ScannedFile> scannedFiles = new HashMap<>();
+
+  private FileChannel channel;
+
+  /**
+   * Loads the snapshot of the tree, if there is one, and passes its digests to the digest cache.
+   *
+   * @param snapshotFile - file to load the snapshot from and to save it to
+   * @param root - root folder of the tree
+   * @param digestCache - cache the digests of the snapshot are added to
+   * @throws IOException
+   */
+  public TreeSnapshot(Path snapshotFile, Path root, DigestCache digestCache) throws IOException {
+    this.snapshotFile = snapshotFile;
+    this.root = root;
+    this.digestCache = digestCache;
+    if (Files.exists(snapshotFile)) {
+      this.load();
+    }
+  }
+
+  /**
+   * @param root
+   * @return name of the snapshot file of the given tree
+   */
+  public static String fileName(Path root) {
+    String id = root.getFileSystem() == FileSystems.getDefault()
+        ? root.toAbsolutePath().normalize().toString() : root.toUri().toString();
+    byte[] path = id.getBytes(StandardCharsets.UTF_8);
+    return DigestCache.toHex(DigestCache.newMessageDigest().digest(path)).substring(0, 16)
+        + ".snapshot";
+  }
+
+  /**
+   * Sets the files found by the current scan, only they are kept when the snapshot is saved.
+   *
+   * @param scannedFiles - scanned files by relative path
+   */
+  public void track(Map<String, ScannedFile> scannedFiles) {
+    this.scannedFiles = new HashMap<>(scannedFiles);
+  }
+
+  @Override
+  public int[] tokenize(Path file, TokenDictionary dictionary) throws IOException {
+    String relativePath = this.relativePath(file);
+    ScannedFile scanned = this.scannedFiles.get(relativePath);
+    byte[] encoded = null;
+    Entry fresh = this.freshEntries.get(relativePath);
+    if (fresh != null) {
+      encoded = this.freshWords.read(fresh.wordsOffset, fresh.wordsLength);
+    }
+    else if (scanned != null) {
+      Entry entry = this.entries.get(relativePath);
+      if (entry != null && entry.matches(scanned) && entry.wordsLength > 0) {
+        encoded = this.readWords(entry);
+      }
+    }
+    if (encoded != null) {
+      return decode(encoded, dictionary);
+    }
+
+    int[] words = ChunkedFileReader.tokenize(file, dictionary, true);
+    if (scanned != null) {
+      this.addFreshWords(relativePath, scanned, encode(words, dictionary));
+    }
+    return words;
+  }
+
+  private synchronized void addFreshWords(String relativePath, ScannedFile scanned,
+      byte[] encoded) throws IOException {
+    if (this.freshWords == null) {
+      this.freshWords =
+          new SpillFile(this.snapshotFile.toAbsolutePath().getParent(), "snapshot-words");
+    }
+    long offset = this.freshWords.append(encoded);
+    this.freshEntries.put(relativePath, new Entry(scanned.getSize(), scanned.getLastModified(),
+        "", offset, encoded.length));
+  }
+
+  private String relativePath(Path file) {
+    String relativePath = this.root.relativize(file).toString();
+    return relativePath.replace(file.getFileSystem().getSeparator(), "/");
+  }
+
+  private synchronized byte[] readWords(Entry entry) throws IOException {
+    if (this.channel == null) {
+      this.channel = FileChannel.open(this.snapshotFile, StandardOpenOption.READ);
+    }
+    return SpillFile.read(this.channel, this.snapshotFile, entry.wordsOffset, entry.wordsLength);
+  }
+
+  /**
+   * Stores the words with a table of the distinct words, so they do not depend on the dictionary
+   * of the comparison.
+   */
+  private static byte[] encode(int[] words, TokenDictionary dictionary) throws IOException {
+    int[] localIds = new int[dictionary.size()];
+    Arrays.fill(localIds, -1);
+    int[] distinct = new int[16];
+    int distinctCount = 0;
+    for (int word : words) {
+      if (localIds[word] < 0) {
+        if (distinctCount == distinct.length) {
+          distinct = Arrays.copyOf(distinct, distinctCount * 2);
+        }
+        localIds[word] = distinctCount;
+        distinct[distinctCount++] = word;
+      }
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(distinctCount);
+      for (int i = 0; i < distinctCount; i++) {
+        writeString(out, dictionary.getWord(distinct[i]));
+      }
+      out.writeInt(words.length);
+      for (int word : words) {
+        out.writeInt(localIds[word]);
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  private static int[] decode(byte[] encoded, TokenDictionary dictionary) throws IOException {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded))) {
+      int[] ids = new int[in.readInt()];
+      for (int i = 0; i < ids.length; i++) {
+        ids[i] = dictionary.intern(readString(in));
+      }
+      int[] words = new int[in.readInt()];
+      for (int i = 0; i < words.length; i++) {
+        words[i] = ids[in.readInt()];
+      }
+      return words;
+    }
+  }
+
+  /**
+   * Writes the tracked files to the snapshot file. Words are kept for the files that were
+   * normalized in this run and for the unchanged files that had them in the previous snapshot.
+   *
+   * @throws IOException
+   */
+  public synchronized void save() throws IOException {
+    Path parent = this.snapshotFile.toAbsolutePath().getParent();
+    Path temp = Files.createTempFile(parent, "snapshot", ".tmp");
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(temp)))) {
+      out.writeInt(MAGIC);
+      writeString(out, this.root.toAbsolutePath().normalize().toString());
+      out.writeInt(this.scannedFiles.size());
+      for (Map.Entry<String, ScannedFile> e : this.scannedFiles.entrySet()) {
+        ScannedFile scanned = e.getValue();
+        Entry previous = this.entries.get(e.getKey());
+        boolean unchanged = previous != null && previous.matches(scanned);
+
+        String digest = this.digestCache.getCachedDigest(scanned.getPath(), scanned.getSize(),
+            scanned.getLastModified());
+        if (digest == null && unchanged) {
+          digest = previous.digest;
+        }
+        Entry fresh = this.freshEntries.get(e.getKey());
+        byte[] words = null;
+        if (fresh != null) {
+          words = this.freshWords.read(fresh.wordsOffset, fresh.wordsLength);
+        }
+        else if (unchanged && previous.wordsLength > 0) {
+          words = this.readWords(previous);
+        }
+
+        writeString(out, e.getKey());
+        out.writeLong(scanned.getSize());
+        out.writeLong(scanned.getLastModified());
+        writeString(out, digest == null ? "" : digest);
+        out.writeInt(words == null ? 0 : words.length);
+        if (words != null) {
+          out.write(words);
+        }
+      }
+    }
+    if (this.channel != null) {
+      this.channel.close();
+      this.channel = null;
+    }
+    if (this.freshWords != null) {
+      this.freshWords.close();
+      this.freshWords = null;
+      this.freshEntries.clear();
+    }
+    Files.move(temp, this.snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private void load() throws IOException {
+    try (InputStream stream = Files.newInputStream(this.snapshotFile);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+      if (in.readInt() != MAGIC) {
+        // unknown format, everything is read again
+        return;
+      }
+      long position = 4;
+      String root = readString(in);
+      position += 4 + root.getBytes(StandardCharsets.UTF_8).length;
+      int count = in.readInt();
+      position += 4;
+      Map<String, Entry> loaded = new LinkedHashMap<>();
+      for (int i = 0; i < count; i++) {
+        String relativePath = readString(in);
+        long size = in.readLong();
+        long lastModified = in.readLong();
+        String digest = readString(in);
+        int wordsLength = in.readInt();
+        position += 4 + relativePath.getBytes(StandardCharsets.UTF_8).length + 8 + 8 + 4
+            + digest.getBytes(StandardCharsets.UTF_8).length + 4;
+        loaded.put(relativePath, new Entry(size, lastModified, digest, position, wordsLength));
+        skipFully(in, wordsLength);
+        position += wordsLength;
+      }
+      this.entries.putAll(loaded);
+    }
+    catch (EOFException e) {
+      // truncated snapshot, everything is read again
+      return;
+    }
+
+    for (Map.Entry<String, Entry> e : this.entries.entrySet()) {
+      Entry entry = e.getValue();
+      if (!entry.digest.isEmpty()) {
+        this.digestCache.remember(this.root.resolve(e.getKey()), entry.size, entry.lastModified,
+            entry.digest);
+      }
+    }
+  }
+
+  static void skipFully(DataInputStream in, int length) throws IOException {
+    int skipped = 0;
+    while (skipped < length) {
+      int n = in.skipBytes(length - skipped);
+      if (n <= 0) {
+        throw new EOFException();
+      }
+      skipped += n;
+    }
+  }
+
+  static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static class Entry {
+
+    private final long size;
+
+    private final long lastModified;
+
+    private final String digest;
+
+    /**
+     * Position of the encoded words in the snapshot file
+     */
+    private final long wordsOffset;
+
+    private final int wordsLength;
+
+    private Entry(long size, long lastModified, String digest, long wordsOffset,
+        int wordsLength) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.digest = digest;
+      this.wordsOffset = wordsOffset;
+      this.wordsLength = wordsLength;
+    }
+
+    private boolean matches(ScannedFile file) {
+      return this.size == file.getSize() && this.lastModified == file.getLastModified();
+    }
+  }
+}
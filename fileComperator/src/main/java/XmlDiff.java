@@ -0,0 +1,455 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Structural comparison of XML documents. Both documents are streamed with StAX into a tree whose
+ * nodes get a hash of their whole subtree when their end tag is read. The trees are then compared
+ * from the root: subtrees with the same hash are skipped, the children of changed elements are
+ * aligned by their hashes and only changed elements with the same name are descended into.
+ * Attributes are compared by name and whitespace in text is collapsed, so reordered attributes and
+ * reformatted documents show no difference. An element is identified by its name and its namespace
+ * URI, namespace declarations are compared like attributes named <code>xmlns</code> and
+ * <code>xmlns:prefix</code>. The alignments and the reported differences are
+ * checked against a {@link DiffBudget.Meter}, every reported difference counts as one edit. Both
+ * the parse and the comparison keep the open elements on a stack of their own, so the depth of a
+ * document is not limited by the thread stack.
+ *
+ * @author tstoyanov
+ */
+public class XmlDiff {
+
+  private static final Set<String> XML_EXTENSIONS = new HashSet<>(
+      Arrays.asList("xml", "xsd", "xsl", "xslt", "wsdl", "xhtml", "svg", "tld", "pom"));
+
+  private static final String TEXT = "text()";
+
+  private static final String COMMENT = "comment()";
+
+  /**
+   * Longest text shown in the report, longer texts are cut
+   */
+  private static final int MAX_TEXT_LENGTH = 80;
+
+  private final DiffAlgorithm algorithm;
+
+  private final DiffBudget.Meter meter;
+
+  private final List<String> report = new ArrayList<>();
+
+  private XmlDiff(DiffAlgorithm algorithm, DiffBudget.Meter meter) {
+    this.algorithm = algorithm;
+    this.meter = meter;
+  }
+
+  /**
+   * @param file
+   * @return true when the file name has an extension of an XML format
+   */
+  public static boolean isXml(Path file) {
+    String name = file.getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    return dot >= 0 && XML_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * Compares two XML documents.
+   *
+   * @param file1 - old version
+   * @param file2 - new version
+   * @param algorithm - algorithm the children of changed elements are aligned with
+   * @param meter
+   * @return report lines with the differences between the two documents, empty if there are none
+   * @throws IOException
+   * @throws XMLStreamException - when one of the files is not well-formed XML
+   * @throws DiffBudget.ExceededException if the comparison goes over the budget of the meter
+   */
+  public static List<String> compare(Path file1, Path file2, DiffAlgorithm algorithm,
+      DiffBudget.Meter meter) throws IOException, XMLStreamException {
+    XmlDiff diff = new XmlDiff(algorithm, meter);
+    diff.compareDocuments(parse(file1, meter), parse(file2, meter));
+    return diff.report;
+  }
+
+  /**
+   * Compares the documents depth first. The pairs of a changed element are pushed on the stack in
+   * reverse, so the differences are reported in document order.
+   */
+  private void compareDocuments(Node document1, Node document2) {
+    Deque<Task> tasks = new ArrayDeque<>();
+    tasks.push(new Task(document1, document2, ""));
+    List<Task> children = new ArrayList<>();
+    while (!tasks.isEmpty()) {
+      Task task = tasks.pop();
+      if (task.node2 == null) {
+        this.addDifference(String.format("Line %d %s is missing in new version", task.node1.line,
+            task.path));
+      }
+      else if (task.node1 == null) {
+        this.addDifference(String.format("Line %d %s is add in new version", task.node2.line,
+            task.path));
+      }
+      else {
+        this.compareNodes(task.node1, task.node2, task.path, children);
+        for (int k = children.size() - 1; k >= 0; k--) {
+          tasks.push(children.get(k));
+        }
+        children.clear();
+      }
+    }
+  }
+
+  /**
+   * Reports the differences of the two nodes themselves and adds the comparisons of their
+   * children to the given list.
+   */
+  private void compareNodes(Node node1, Node node2, String path, List<Task> children) {
+    if (node1.hash == node2.hash) {
+      return;
+    }
+    if (node1.text != null) {
+      this.addDifference(String.format("Line %d %s is edit to %s in new version", node2.line,
+          path, quote(node2.text)));
+      return;
+    }
+    for (Map.Entry<String, String> attribute : node1.attributes.entrySet()) {
+      String value = node2.attributes.get(attribute.getKey());
+      if (value == null) {
+        this.addDifference(String.format("Line %d %s/@%s is missing in new version", node1.line,
+            path, attribute.getKey()));
+      }
+      else if (!value.equals(attribute.getValue())) {
+        this.addDifference(String.format("Line %d %s/@%s %s is edit to %s in new version",
+            node2.line, path, attribute.getKey(), quote(attribute.getValue()), quote(value)));
+      }
+    }
+    for (Map.Entry<String, String> attribute : node2.attributes.entrySet()) {
+      if (!node1.attributes.containsKey(attribute.getKey())) {
+        this.addDifference(String.format("Line %d %s/@%s %s is add in new version", node2.line,
+            path, attribute.getKey(), quote(attribute.getValue())));
+      }
+    }
+    this.compareChildren(node1, node2, path, children);
+  }
+
+  private void addDifference(String difference) {
+    this.report.add(difference);
+    this.meter.check(this.report.size());
+  }
+
+  /**
+   * Aligns the children of the two nodes by their hashes. The children left over between two
+   * aligned ones are paired by name and compared, the rest are missing or added.
+   */
+  private void compareChildren(Node parent1, Node parent2, String path, List<Task> tasks) {
+    List<Node> children1 = parent1.children;
+    List<Node> children2 = parent2.children;
+    Map<Long, Integer> ids = new HashMap<>();
+    int[] hashes1 = new int[children1.size()];
+    int[] hashes2 = new int[children2.size()];
+    for (int i = 0; i < hashes1.length; i++) {
+      hashes1[i] = ids.computeIfAbsent(children1.get(i).hash, hash -> ids.size());
+    }
+    for (int i = 0; i < hashes2.length; i++) {
+      hashes2[i] = ids.computeIfAbsent(children2.get(i).hash, hash -> ids.size());
+    }
+    EditScript script = this.algorithm.diff(hashes1, hashes2, this.meter);
+
+    String[] paths1 = childPaths(children1, path);
+    String[] paths2 = childPaths(children2, path);
+    int i = 0;
+    int j = 0;
+    while (i < hashes1.length || j < hashes2.length) {
+      int gapStart1 = i;
+      int gapStart2 = j;
+      while (i < hashes1.length && script.isDeleted(i)) {
+        i++;
+      }
+      while (j < hashes2.length && script.isInserted(j)) {
+        j++;
+      }
+      this.compareGap(children1, paths1, gapStart1, i, children2, paths2, gapStart2, j, tasks);
+      // the next pair is aligned
+      i++;
+      j++;
+    }
+  }
+
+  /**
+   * Pairs every child of the first gap with the first unpaired child of the same name in the
+   * second gap.
+   */
+  private void compareGap(List<Node> children1, String[] paths1, int from1, int to1,
+      List<Node> children2, String[] paths2, int from2, int to2, List<Task> tasks) {
+    if (from1 == to1 && from2 == to2) {
+      return;
+    }
+    Map<String, Deque<Integer>> unpaired = new HashMap<>();
+    for (int j = from2; j < to2; j++) {
+      unpaired.computeIfAbsent(children2.get(j).identity(), name -> new ArrayDeque<>()).add(j);
+    }
+    boolean[] paired = new boolean[to2 - from2];
+    for (int i = from1; i < to1; i++) {
+      this.meter.check(this.report.size());
+      Node node1 = children1.get(i);
+      Deque<Integer> sameName = unpaired.get(node1.identity());
+      int match = sameName == null || sameName.isEmpty() ? -1 : sameName.poll();
+      if (match < 0) {
+        tasks.add(new Task(node1, null, paths1[i]));
+      }
+      else {
+        paired[match - from2] = true;
+        tasks.add(new Task(node1, children2.get(match), paths2[match]));
+      }
+    }
+    for (int j = from2; j < to2; j++) {
+      if (!paired[j - from2]) {
+        tasks.add(new Task(null, children2.get(j), paths2[j]));
+      }
+    }
+  }
+
+  /**
+   * @return XPath like paths of the children, with the position among the children of the same
+   *         name when there is more than one
+   */
+  private static String[] childPaths(List<Node> children, String path) {
+    Map<String, Integer> counts = new HashMap<>();
+    for (Node child : children) {
+      counts.merge(child.name, 1, Integer::sum);
+    }
+    Map<String, Integer> positions = new HashMap<>();
+    String[] paths = new String[children.size()];
+    for (int i = 0; i < paths.length; i++) {
+      String name = children.get(i).name;
+      int position = positions.merge(name, 1, Integer::sum);
+      paths[i] = path + "/" + name + (counts.get(name) > 1 ? "[" + position + "]" : "");
+    }
+    return paths;
+  }
+
+  private static String quote(String text) {
+    if (text.length() > MAX_TEXT_LENGTH) {
+      text = text.substring(0, MAX_TEXT_LENGTH) + "...";
+    }
+    return "\"" + text + "\"";
+  }
+
+  /**
+   * Reads the document into a tree of elements, texts and comments. Whitespace only texts are
+   * dropped, DTDs and external entities are not read. The time limit of the meter is checked at
+   * every element.
+   *
+   * @return node with the root element as its only element child
+   */
+  private static Node parse(Path file, DiffBudget.Meter meter)
+      throws IOException, XMLStreamException {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+
+    Node document = new Node("", "", null, 1);
+    Deque<Node> open = new ArrayDeque<>();
+    open.push(document);
+    StringBuilder text = new StringBuilder();
+    int textLine = 1;
+    try (InputStream in = Files.newInputStream(file)) {
+      XMLStreamReader reader = factory.createXMLStreamReader(in);
+      try {
+        while (reader.hasNext()) {
+          int event = reader.next();
+          if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+              || event == XMLStreamConstants.SPACE) {
+            if (text.length() == 0) {
+              textLine = reader.getLocation().getLineNumber();
+            }
+            text.append(reader.getText());
+            continue;
+          }
+          addText(open.peek(), text, TEXT, textLine);
+          text.setLength(0);
+          int line = reader.getLocation().getLineNumber();
+          if (event == XMLStreamConstants.START_ELEMENT) {
+            meter.check(0);
+            String namespace = reader.getNamespaceURI();
+            Node element = new Node(qualifiedName(reader.getPrefix(), reader.getLocalName()),
+                namespace == null ? "" : namespace, null, line);
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+              String prefix = reader.getNamespacePrefix(i);
+              String uri = reader.getNamespaceURI(i);
+              element.attributes.put(prefix == null || prefix.isEmpty() ? "xmlns" : "xmlns:"
+                  + prefix, uri == null ? "" : uri);
+            }
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+              element.attributes.put(
+                  qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                  reader.getAttributeValue(i));
+            }
+            open.peek().children.add(element);
+            open.push(element);
+          }
+          else if (event == XMLStreamConstants.END_ELEMENT) {
+            open.pop().seal();
+          }
+          else if (event == XMLStreamConstants.COMMENT) {
+            StringBuilder comment = new StringBuilder(reader.getText());
+            addText(open.peek(), comment, COMMENT, line);
+          }
+        }
+      }
+      finally {
+        reader.close();
+      }
+    }
+    document.seal();
+    return document;
+  }
+
+  private static void addText(Node parent, StringBuilder text, String name, int line) {
+    String normalized = collapseWhitespace(text);
+    if (!normalized.isEmpty()) {
+      Node node = new Node(name, "", normalized, line);
+      node.seal();
+      parent.children.add(node);
+    }
+  }
+
+  /**
+   * @return the text without leading and trailing whitespace and with other whitespace runs
+   *         replaced by a single space
+   */
+  private static String collapseWhitespace(CharSequence text) {
+    StringBuilder collapsed = new StringBuilder(text.length());
+    boolean space = false;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (Character.isWhitespace(c)) {
+        space = collapsed.length() > 0;
+      }
+      else {
+        if (space) {
+          collapsed.append(' ');
+          space = false;
+        }
+        collapsed.append(c);
+      }
+    }
+    return collapsed.toString();
+  }
+
+  private static String qualifiedName(String prefix, String localName) {
+    return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+  }
+
+  /**
+   * Pair of nodes to compare, or a node that is missing or added when the other one is null
+   */
+  private static final class Task {
+
+    private final Node node1;
+
+    private final Node node2;
+
+    private final String path;
+
+    private Task(Node node1, Node node2, String path) {
+      this.node1 = node1;
+      this.node2 = node2;
+      this.path = path;
+    }
+  }
+
+  /**
+   * Element, text or comment of a document
+   */
+  private static final class Node {
+
+    /**
+     * Element name, {@link #TEXT} or {@link #COMMENT}
+     */
+    private final String name;
+
+    /**
+     * Namespace URI of an element, empty when it has none
+     */
+    private final String namespace;
+
+    /**
+     * Normalized text of a text or comment node, null for elements
+     */
+    private final String text;
+
+    private final int line;
+
+    /**
+     * Attributes sorted by name, so their order does not change the hash
+     */
+    private final Map<String, String> attributes = new TreeMap<>();
+
+    private final List<Node> children = new ArrayList<>();
+
+    private long hash;
+
+    private Node(String name, String namespace, String text, int line) {
+      this.name = name;
+      this.namespace = namespace;
+      this.text = text;
+      this.line = line;
+    }
+
+    /**
+     * @return the name with the namespace URI, nodes are only paired when it is the same
+     */
+    private String identity() {
+      return this.namespace.isEmpty() ? this.name : "{" + this.namespace + "}" + this.name;
+    }
+
+    /**
+     * Computes the hash of the subtree, called when all children are read
+     */
+    private void seal() {
+      long h = hash(hash(0xCBF29CE484222325L, this.name), this.namespace);
+      if (this.text != null) {
+        h = hash(h, this.text);
+      }
+      for (Map.Entry<String, String> attribute : this.attributes.entrySet()) {
+        h = hash(hash(h, attribute.getKey()), attribute.getValue());
+      }
+      for (Node child : this.children) {
+        h = mix(h ^ child.hash);
+      }
+      this.hash = h;
+    }
+
+    private static long hash(long h, String value) {
+      for (int i = 0; i < value.length(); i++) {
+        h = (h ^ value.charAt(i)) * 0x100000001B3L;
+      }
+      // separates the strings, so "ab" + "c" differs from "a" + "bc"
+      return mix(h ^ value.length());
+    }
+
+    private static long mix(long h) {
+      h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+      h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+      return h ^ (h >>> 33);
+    }
+  }
+}
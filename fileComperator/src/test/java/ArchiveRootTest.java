@@ -0,0 +1,161 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Trees compared in place from zip files have to give the same results as the extracted folders.
+ *
+ * @author tstoyanov
+ */
+public class ArchiveRootTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path oldFolder;
+
+  private Path newFolder;
+
+  private Path oldZip;
+
+  private Path newZip;
+
+  @Before
+  public void createTrees() throws IOException {
+    Path root = this.folder.getRoot().toPath();
+    this.oldFolder = root.resolve("old");
+    write(this.oldFolder, "a.xml", "<r>\n  <c v=\"1\">text</c>\n</r>\n");
+    write(this.oldFolder, "dir/b.txt", "same words in both versions\n");
+    write(this.oldFolder, "dir/sub/c.html", "<html>\n<body>old body</body>\n</html>\n");
+    write(this.oldFolder, "gone.txt", "only in the old version\n");
+    write(this.oldFolder, "moved/x.txt", "a file that is moved to another folder\n");
+    this.newFolder = root.resolve("new");
+    write(this.newFolder, "a.xml", "<r>\n  <c v=\"2\">text</c>\n</r>\n");
+    write(this.newFolder, "dir/b.txt", "same words in both versions\n");
+    write(this.newFolder, "dir/sub/c.html", "<html>\n<body>new body</body>\n</html>\n");
+    write(this.newFolder, "added.txt", "only in the new version\n");
+    write(this.newFolder, "other/x.txt", "a file that is moved to another folder\n");
+    this.oldZip = zip(this.oldFolder, root.resolve("old.zip"));
+    this.newZip = zip(this.newFolder, root.resolve("new.jar"));
+  }
+
+  @Test
+  public void scansTheSameFilesAsTheFolder() throws IOException {
+    assertEquals(sizes(this.oldFolder), this.scan(this.oldZip));
+    assertEquals(sizes(this.newFolder), this.scan(this.newZip));
+  }
+
+  @Test
+  public void comparesLikeTheFolders() throws IOException {
+    String folders = this.report(this.oldFolder, this.newFolder);
+    assertTrue(folders, folders.contains("other/x.txt is moved from moved/x.txt"));
+    assertTrue(folders, folders.contains("this file gone.txt is missing"));
+    assertEquals(folders, this.report(this.oldZip, this.newZip));
+    assertEquals(folders, this.report(this.oldFolder, this.newZip));
+  }
+
+  @Test
+  public void folderIsUsedAsItIs() throws IOException {
+    try (ArchiveRoot root = ArchiveRoot.open(this.oldFolder)) {
+      assertEquals(this.oldFolder, root.getPath());
+    }
+  }
+
+  @Test
+  public void closesTheArchive() throws IOException {
+    FileSystem archive;
+    try (ArchiveRoot root = ArchiveRoot.open(this.oldZip)) {
+      archive = root.getPath().getFileSystem();
+      assertNotEquals(this.oldZip.getFileSystem(), archive);
+      assertTrue(archive.isOpen());
+    }
+    assertFalse(archive.isOpen());
+  }
+
+  /**
+   * @return sizes of the scanned files by relative path
+   */
+  private Map<String, Long> scan(Path path) throws IOException {
+    DirectoryScanner scanner = new DirectoryScanner();
+    try (ArchiveRoot root = ArchiveRoot.open(path)) {
+      return scanner.scan(root.getPath()).entrySet().stream().collect(Collectors.toMap(
+          Map.Entry::getKey, entry -> entry.getValue().getSize(), (a, b) -> a, TreeMap::new));
+    }
+    finally {
+      scanner.shutdown();
+    }
+  }
+
+  private static Map<String, Long> sizes(Path folder) throws IOException {
+    Map<String, Long> sizes = new TreeMap<>();
+    DirectoryScanner scanner = new DirectoryScanner();
+    try {
+      for (Map.Entry<String, ScannedFile> entry : scanner.scan(folder).entrySet()) {
+        sizes.put(entry.getKey(), Files.size(folder.resolve(entry.getKey())));
+      }
+    }
+    finally {
+      scanner.shutdown();
+    }
+    return sizes;
+  }
+
+  private String report(Path source, Path destination) throws IOException {
+    Path result = Files.createTempFile(this.folder.getRoot().toPath(), "result", ".txt");
+    Properties settings = new Properties();
+    settings.setProperty("Enter sorce folder", source.toString());
+    settings.setProperty("Enter destination folder", destination.toString());
+    settings.setProperty("Enter location to prev result file",
+        this.folder.getRoot().toPath().resolve("prev.txt").toString());
+    settings.setProperty("Enter Location to save result file and give name", result.toString());
+    settings.setProperty("Enter number of comparison threads", "1");
+    FileCompareManager.run(settings, null, null);
+    return new String(Files.readAllBytes(result), StandardCharsets.UTF_8);
+  }
+
+  private static void write(Path folder, String name, String text) throws IOException {
+    Path file = folder.resolve(name);
+    Files.createDirectories(file.getParent());
+    Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static Path zip(Path folder, Path zip) throws IOException {
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip));
+        Stream<Path> files = Files.walk(folder)) {
+      for (Path file : (Iterable<Path>) files.sorted()::iterator) {
+        String name = folder.relativize(file).toString().replace('\\', '/');
+        if (name.isEmpty()) {
+          continue;
+        }
+        if (Files.isDirectory(file)) {
+          out.putNextEntry(new ZipEntry(name + "/"));
+        }
+        else {
+          out.putNextEntry(new ZipEntry(name));
+          Files.copy(file, (OutputStream) out);
+        }
+        out.closeEntry();
+      }
+    }
+    return zip;
+  }
+}
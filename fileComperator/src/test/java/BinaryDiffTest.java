@@ -0,0 +1,112 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Byte ranges reported by {@link BinaryDiff}. The old files have 8192 bytes, so they are split
+ * into 16 blocks of 512 bytes.
+ *
+ * @author tstoyanov
+ */
+public class BinaryDiffTest {
+
+  private static final int SIZE = 8192;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private byte[] bytes;
+
+  @Before
+  public void createBytes() {
+    this.bytes = new byte[SIZE];
+    new Random(1).nextBytes(this.bytes);
+  }
+
+  @Test
+  public void identicalFiles() throws IOException {
+    assertEquals(Arrays.asList(similar(100)), this.compare(this.bytes.clone()));
+  }
+
+  @Test
+  public void insertedBytes() throws IOException {
+    byte[] inserted = new byte[100];
+    new Random(2).nextBytes(inserted);
+    byte[] changed = new byte[SIZE + inserted.length];
+    System.arraycopy(this.bytes, 0, changed, 0, 1024);
+    System.arraycopy(inserted, 0, changed, 1024, inserted.length);
+    System.arraycopy(this.bytes, 1024, changed, 1024 + inserted.length, SIZE - 1024);
+    assertEquals(Arrays.asList(similar(100.0 * SIZE / changed.length),
+        "Bytes 1024-1123 is add in new version"), this.compare(changed));
+  }
+
+  @Test
+  public void overwrittenBlock() throws IOException {
+    byte[] changed = this.bytes.clone();
+    Arrays.fill(changed, 2048, 2560, (byte) 7);
+    assertEquals(Arrays.asList(similar(100.0 * (SIZE - 512) / SIZE),
+        "Bytes 2048-2559 is missing in new version", "Bytes 2048-2559 is add in new version"),
+        this.compare(changed));
+  }
+
+  @Test
+  public void truncatedFile() throws IOException {
+    assertEquals(Arrays.asList(similar(50), "Bytes 4096-8191 is missing in new version"),
+        this.compare(Arrays.copyOf(this.bytes, SIZE / 2)));
+  }
+
+  @Test
+  public void movedBlock() throws IOException {
+    byte[] changed = new byte[SIZE];
+    System.arraycopy(this.bytes, SIZE - 512, changed, 0, 512);
+    System.arraycopy(this.bytes, 0, changed, 512, SIZE - 512);
+    assertEquals(Arrays.asList(similar(100)), this.compare(changed));
+  }
+
+  @Test
+  public void shortLastBlock() throws IOException {
+    byte[] old = Arrays.copyOf(this.bytes, SIZE - 100);
+    byte[] changed = old.clone();
+    changed[10] ^= 1;
+    assertEquals(Arrays.asList(similar(100.0 * (old.length - 512) / old.length),
+        "Bytes 0-511 is missing in new version", "Bytes 0-511 is add in new version"),
+        BinaryDiff.compare(this.write("old.bin", old), this.write("new.bin", changed)));
+  }
+
+  @Test
+  public void emptyFiles() throws IOException {
+    assertEquals(Arrays.asList(similar(100)),
+        BinaryDiff.compare(this.write("old.bin", new byte[0]), this.write("new.bin", new byte[0])));
+  }
+
+  @Test
+  public void detectsBinaryFiles() throws IOException {
+    assertTrue(BinaryDiff.isBinary(this.write("data.bin", this.bytes)));
+    assertFalse(BinaryDiff.isBinary(
+        this.write("text.xml", "<a>text</a>".getBytes(StandardCharsets.UTF_8))));
+  }
+
+  private List<String> compare(byte[] changed) throws IOException {
+    return BinaryDiff.compare(this.write("old.bin", this.bytes), this.write("new.bin", changed));
+  }
+
+  private Path write(String name, byte[] content) throws IOException {
+    return Files.write(this.folder.getRoot().toPath().resolve(name), content);
+  }
+
+  private static String similar(double percent) {
+    return String.format("Binary file, %.1f%% similar", percent);
+  }
+}
@@ -0,0 +1,168 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Edit scripts of {@link DiffAlgorithm#MYERS} and {@link DiffAlgorithm#HISTOGRAM}. Every script has
+ * to turn the old sequence into the new one; the Myers script also has to be a shortest one, which
+ * is checked against a longest common subsequence table.
+ *
+ * @author tstoyanov
+ */
+public class DiffAlgorithmTest {
+
+  private static final int RANDOM_CASES = 2000;
+
+  @Test
+  public void myersScriptsAreValidAndShortest() {
+    Random random = new Random(1);
+    for (int i = 0; i < RANDOM_CASES; i++) {
+      int[] words1 = randomWords(random);
+      int[] words2 = mutate(random, words1);
+      EditScript script = DiffAlgorithm.MYERS.diff(words1, words2);
+      assertValid(words1, words2, script);
+      assertEquals(words1.length + words2.length - 2 * lcsLength(words1, words2),
+          script.getEditDistance());
+    }
+  }
+
+  @Test
+  public void histogramScriptsAreValid() {
+    Random random = new Random(2);
+    for (int i = 0; i < RANDOM_CASES; i++) {
+      int[] words1 = randomWords(random);
+      int[] words2 = mutate(random, words1);
+      EditScript script = DiffAlgorithm.HISTOGRAM.diff(words1, words2);
+      assertValid(words1, words2, script);
+      assertTrue(script.getEditDistance()
+          >= words1.length + words2.length - 2 * lcsLength(words1, words2));
+    }
+  }
+
+  @Test
+  public void identicalSequencesHaveNoEdits() {
+    int[] words = { 1, 2, 3, 2, 1 };
+    for (DiffAlgorithm algorithm : DiffAlgorithm.values()) {
+      assertEquals(0, algorithm.diff(words, words.clone()).getEditDistance());
+    }
+  }
+
+  @Test
+  public void emptySequences() {
+    int[] words = { 1, 2, 3 };
+    for (DiffAlgorithm algorithm : DiffAlgorithm.values()) {
+      assertEquals(0, algorithm.diff(new int[0], new int[0]).getEditDistance());
+      EditScript inserted = algorithm.diff(new int[0], words);
+      assertValid(new int[0], words, inserted);
+      assertEquals(3, inserted.getEditDistance());
+      EditScript deleted = algorithm.diff(words, new int[0]);
+      assertValid(words, new int[0], deleted);
+      assertEquals(3, deleted.getEditDistance());
+    }
+  }
+
+  @Test
+  public void histogramKeepsUniqueWordsOfAMovedBlock() {
+    // the block 7 8 9 moves to the front, the unique words around it stay aligned
+    int[] words1 = { 1, 2, 3, 4, 5, 6, 7, 8, 9 };
+    int[] words2 = { 7, 8, 9, 1, 2, 3, 4, 5, 6 };
+    EditScript script = DiffAlgorithm.HISTOGRAM.diff(words1, words2);
+    assertValid(words1, words2, script);
+    assertEquals(6, script.getEditDistance());
+  }
+
+  @Test
+  public void overBudgetThrows() {
+    int[] words1 = new int[200];
+    int[] words2 = new int[200];
+    for (int i = 0; i < words1.length; i++) {
+      words1[i] = i;
+      words2[i] = i + 1000;
+    }
+    for (DiffAlgorithm algorithm : DiffAlgorithm.values()) {
+      try {
+        algorithm.diff(words1, words2, new DiffBudget(0, 10, 0).start());
+        fail(algorithm + " did not stop at the edit limit");
+      }
+      catch (DiffBudget.ExceededException e) {
+        // expected
+      }
+    }
+  }
+
+  /**
+   * Checks that the kept words of both sequences are the same words in the same order.
+   */
+  private static void assertValid(int[] words1, int[] words2, EditScript script) {
+    int i = 0;
+    int j = 0;
+    int edits = 0;
+    while (i < words1.length || j < words2.length) {
+      if (i < words1.length && script.isDeleted(i)) {
+        i++;
+        edits++;
+      }
+      else if (j < words2.length && script.isInserted(j)) {
+        j++;
+        edits++;
+      }
+      else {
+        assertTrue("kept words run out at " + i + ", " + j,
+            i < words1.length && j < words2.length);
+        assertEquals("kept word at " + i + ", " + j, words1[i], words2[j]);
+        i++;
+        j++;
+      }
+    }
+    assertEquals(edits, script.getEditDistance());
+  }
+
+  private static int lcsLength(int[] words1, int[] words2) {
+    int[][] lengths = new int[words1.length + 1][words2.length + 1];
+    for (int i = words1.length - 1; i >= 0; i--) {
+      for (int j = words2.length - 1; j >= 0; j--) {
+        lengths[i][j] = words1[i] == words2[j] ? lengths[i + 1][j + 1] + 1
+            : Math.max(lengths[i + 1][j], lengths[i][j + 1]);
+      }
+    }
+    return lengths[0][0];
+  }
+
+  /**
+   * @return up to 60 words from a small alphabet, so words repeat
+   */
+  private static int[] randomWords(Random random) {
+    int[] words = new int[random.nextInt(60)];
+    int alphabet = 1 + random.nextInt(12);
+    for (int i = 0; i < words.length; i++) {
+      words[i] = random.nextInt(alphabet);
+    }
+    return words;
+  }
+
+  /**
+   * @return the words with some of them deleted, inserted or replaced
+   */
+  private static int[] mutate(Random random, int[] words) {
+    int[] result = new int[words.length * 2 + 10];
+    int length = 0;
+    for (int word : words) {
+      int change = random.nextInt(10);
+      if (change == 0) {
+        continue;
+      }
+      if (change == 1) {
+        result[length++] = random.nextInt(15);
+      }
+      result[length++] = change == 2 ? random.nextInt(15) : word;
+    }
+    if (random.nextBoolean()) {
+      result[length++] = random.nextInt(15);
+    }
+    return Arrays.copyOf(result, length);
+  }
+}
@@ -0,0 +1,137 @@
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * {@link NormalizingLexer} has to produce the words of the replace based normalization it took
+ * over from {@link FileComparator}. That normalization is kept here as the reference and both are
+ * run on random texts made of the characters that matter to it.
+ *
+ * @author tstoyanov
+ */
+public class NormalizingLexerTest {
+
+  private static final char[] ALPHABET = { '<', '>', '/', ' ', ' ', '\t', '\n', '\r', 'a', 'b',
+      'a', 'b', '&', '=' };
+
+  private static final int RANDOM_CASES = 5000;
+
+  @Test
+  public void normalizesLikeTheReference() {
+    Random random = new Random(1);
+    for (int i = 0; i < RANDOM_CASES; i++) {
+      String text = randomText(random);
+      assertSameWords(text, reference(text), false);
+    }
+  }
+
+  @Test
+  public void joinsTagLinesLikeTheReference() {
+    Random random = new Random(2);
+    int compared = 0;
+    while (compared < RANDOM_CASES) {
+      String text = randomText(random);
+      String joined;
+      try {
+        joined = removeNewLineBetweenOpenAndCloseTags(text);
+      }
+      catch (ArrayIndexOutOfBoundsException e) {
+        // the reference fails when the last line does not close a tag
+        continue;
+      }
+      assertSameWords(text, reference(joined), true);
+      compared++;
+    }
+  }
+
+  @Test
+  public void joinsAnAttributeListOverSeveralLines() {
+    String text = "<root>\r\n  <item name=\"a\"\r\n        value=\"b\" />\r\n</root>\r\n";
+    assertSameWords(text, reference(removeNewLineBetweenOpenAndCloseTags(text)), true);
+  }
+
+  @Test
+  public void feedsChunks() {
+    String text = "<a>\n  <b x=\"1\"\n     y=\"2\" >text</b>\r\n\t<c/>\n</a>";
+    TokenDictionary dictionary = new TokenDictionary();
+    int[] whole = NormalizingLexer.tokenize(text, dictionary, true);
+    for (int chunk = 1; chunk < text.length(); chunk++) {
+      NormalizingLexer lexer = new NormalizingLexer(dictionary, true);
+      char[] chars = text.toCharArray();
+      for (int i = 0; i < chars.length; i += chunk) {
+        lexer.feed(chars, i, Math.min(chunk, chars.length - i));
+      }
+      assertArrayEquals("chunks of " + chunk, whole, lexer.finish());
+    }
+  }
+
+  private static void assertSameWords(String text, String[] expected, boolean joinTagLines) {
+    TokenDictionary dictionary = new TokenDictionary();
+    int[] ids = NormalizingLexer.tokenize(text, dictionary, joinTagLines);
+    String[] words = new String[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      words[i] = dictionary.getWord(ids[i]);
+    }
+    assertArrayEquals(escape(text), expected, words);
+  }
+
+  /**
+   * The lines joining done before the text report was made by {@link NormalizingLexer}.
+   */
+  private static String removeNewLineBetweenOpenAndCloseTags(String text) {
+    text = text.replace("\n", "\r\n");
+    String[] el = Arrays.stream(text.split("\r\n")).filter(x -> !x.trim().equals(""))
+        .toArray(String[]::new);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < el.length; i++) {
+      String tempEl = el[i];
+      while (!tempEl.trim().endsWith(">")) {
+        sb.append(tempEl.replace("\r", " "));
+        tempEl = el[++i];
+      }
+      tempEl = tempEl.replaceAll(" />", "/>").replaceAll(" >", ">").replaceAll("> ", ">")
+          .replaceAll("/> ", "/>");
+      sb.append(tempEl + "\n");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * The normalization and splitting into words done before {@link NormalizingLexer}.
+   */
+  private static String[] reference(String text) {
+    text = text.trim();
+    text = text.replace("<", "&lt;");
+    text = text.replace(">", "&gt;");
+    text = text.replace("\r\n", "<br> ");
+    text = text.replace("\n", "<br> ");
+    text = text.replace("\t", " ");
+    while (text.contains("  ")) {
+      text = text.replace("  ", " ");
+    }
+    if (text.indexOf(' ') < 0) {
+      return new String[] { text };
+    }
+    List<String> words = new ArrayList<>(Arrays.asList(text.split(" ", -1)));
+    while (!words.isEmpty() && words.get(words.size() - 1).isEmpty()) {
+      words.remove(words.size() - 1);
+    }
+    return words.toArray(new String[0]);
+  }
+
+  private static String randomText(Random random) {
+    char[] text = new char[random.nextInt(40)];
+    for (int i = 0; i < text.length; i++) {
+      text[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+    }
+    return new String(text);
+  }
+
+  private static String escape(String text) {
+    return text.replace("\r", "\\r").replace("\n", "\\n").replace("\t", "\\t");
+  }
+}
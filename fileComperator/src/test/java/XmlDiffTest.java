@@ -0,0 +1,149 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.xml.stream.XMLStreamException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Differences reported by {@link XmlDiff} between two documents.
+ *
+ * @author tstoyanov
+ */
+public class XmlDiffTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void ignoresFormattingAndAttributeOrder() throws Exception {
+    assertEquals(Collections.emptyList(), this.compare(
+        "<r><c a=\"1\" b=\"2\">text</c></r>",
+        "<r>\n  <c  b=\"2\"\n     a=\"1\">text</c>\n</r>\n"));
+  }
+
+  @Test
+  public void changedAttribute() throws Exception {
+    assertEquals(Arrays.asList("Line 1 /r/c/@v \"1\" is edit to \"2\" in new version"),
+        this.compare("<r><c v=\"1\"/></r>", "<r><c v=\"2\"/></r>"));
+  }
+
+  @Test
+  public void changedText() throws Exception {
+    assertEquals(Arrays.asList("Line 3 /r/c/text() is edit to \"new\" in new version"),
+        this.compare("<r>\n<c>old</c>\n</r>", "<r>\n\n<c>new</c>\n</r>"));
+  }
+
+  @Test
+  public void missingAndAddedChildren() throws Exception {
+    assertEquals(Arrays.asList("Line 1 /r/b is missing in new version",
+        "Line 1 /r/d is add in new version"),
+        this.compare("<r><a/><b/><c/></r>", "<r><a/><c/><d/></r>"));
+  }
+
+  @Test
+  public void repeatedChildrenArePositioned() throws Exception {
+    assertEquals(Arrays.asList("Line 1 /r/i[2]/text() is edit to \"x\" in new version"),
+        this.compare("<r><i>1</i><i>2</i><i>3</i></r>", "<r><i>1</i><i>x</i><i>3</i></r>"));
+  }
+
+  @Test
+  public void deepNesting() throws Exception {
+    int depth = 5000;
+    List<String> report = this.compare(nested(depth, "old"), nested(depth, "new"));
+    assertEquals(1, report.size());
+    assertTrue(report.get(0),
+        report.get(0).endsWith("/e/text() is edit to \"new\" in new version"));
+    assertEquals(Collections.emptyList(), this.compare(nested(depth, "old"), nested(depth, "old")));
+  }
+
+  @Test
+  public void changedDefaultNamespace() throws Exception {
+    // the same names in another namespace are other elements
+    assertEquals(Arrays.asList("Line 1 /r is missing in new version",
+        "Line 1 /r is add in new version"),
+        this.compare("<r xmlns=\"urn:a\"><c/></r>", "<r xmlns=\"urn:b\"><c/></r>"));
+  }
+
+  @Test
+  public void sameNamespacesUnderOtherPrefixes() throws Exception {
+    assertEquals(Collections.emptyList(), this.compare(
+        "<r xmlns:a=\"urn:a\" xmlns:b=\"urn:b\"><a:c/></r>",
+        "<r xmlns:b=\"urn:b\" xmlns:a=\"urn:a\"><a:c/></r>"));
+  }
+
+  @Test
+  public void elementMovedToOtherNamespace() throws Exception {
+    List<String> report = this.compare("<r xmlns:p=\"urn:a\"><p:c/></r>",
+        "<r xmlns:p=\"urn:b\"><p:c/></r>");
+    assertTrue(report.toString(),
+        report.contains("Line 1 /r/@xmlns:p \"urn:a\" is edit to \"urn:b\" in new version"));
+    assertTrue(report.toString(), report.contains("Line 1 /r/p:c is missing in new version"));
+    assertTrue(report.toString(), report.contains("Line 1 /r/p:c is add in new version"));
+  }
+
+  @Test
+  public void overBudgetThrows() throws Exception {
+    StringBuilder text1 = new StringBuilder("<r>");
+    StringBuilder text2 = new StringBuilder("<r>");
+    for (int i = 0; i < 100; i++) {
+      text1.append("<a>").append(i).append("</a>");
+      text2.append("<b>").append(i).append("</b>");
+    }
+    try {
+      XmlDiff.compare(this.write("old.xml", text1 + "</r>"), this.write("new.xml", text2 + "</r>"),
+          DiffAlgorithm.MYERS, new DiffBudget(0, 10, 0).start());
+      fail("the comparison did not stop at the edit limit");
+    }
+    catch (DiffBudget.ExceededException e) {
+      // expected
+    }
+  }
+
+  @Test(expected = XMLStreamException.class)
+  public void malformedDocument() throws Exception {
+    this.compare("<r><c></r>", "<r/>");
+  }
+
+  @Test
+  public void detectsXmlFiles() {
+    assertTrue(XmlDiff.isXml(Paths.get("a", "pom.XML")));
+    assertTrue(XmlDiff.isXml(Paths.get("schema.xsd")));
+    assertFalse(XmlDiff.isXml(Paths.get("page.html")));
+    assertFalse(XmlDiff.isXml(Paths.get("xml")));
+  }
+
+  private List<String> compare(String text1, String text2)
+      throws IOException, XMLStreamException {
+    return XmlDiff.compare(this.write("old.xml", text1), this.write("new.xml", text2),
+        DiffAlgorithm.MYERS, DiffBudget.UNLIMITED.start());
+  }
+
+  private Path write(String name, String text) throws IOException {
+    return Files.write(this.folder.getRoot().toPath().resolve(name),
+        text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String nested(int depth, String text) {
+    StringBuilder xml = new StringBuilder();
+    for (int i = 0; i < depth; i++) {
+      xml.append("<e>");
+    }
+    xml.append(text);
+    for (int i = 0; i < depth; i++) {
+      xml.append("</e>");
+    }
+    return xml.toString();
+  }
+}